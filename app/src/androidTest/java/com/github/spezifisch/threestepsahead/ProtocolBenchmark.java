@@ -0,0 +1,116 @@
+package com.github.spezifisch.threestepsahead;
+
+import android.os.Bundle;
+import android.os.Message;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares legacy Bundle messages with Protocol.V1 for SET_POS: parcel size and encode/decode time.
+ * Results are logged with tag ProtocolBenchmark.
+ */
+public class ProtocolBenchmark extends TestCase {
+    static final String TAG = "ProtocolBenchmark";
+    static final int ROUNDS = 20000;
+    static final String SOURCE = "SettingsClientJoystickService";
+
+    private Message legacyMessage() {
+        Message message = Message.obtain(null, IPC.msg.SET_POS);
+        Bundle bundle = new Bundle();
+        bundle.putString("source", SOURCE);
+        bundle.putDouble("latitude", 52.520008);
+        bundle.putDouble("longitude", 13.404954);
+        bundle.putDouble("altitude", 34.0);
+        bundle.putFloat("bearing", 123.4f);
+        bundle.putFloat("speed", 1.4f);
+        bundle.putFloat("accuracy", 5.0f);
+        message.setData(bundle);
+        return message;
+    }
+
+    private Message compactMessage() {
+        byte[] data = Protocol.encodeLocation(new byte[Protocol.LOCATION_SIZE],
+                52.520008, 13.404954, 34.0, 123.4f, 1.4f, 5.0f, 1234567890L);
+        // as SettingsClient sends it
+        return IPC.SettingsClient.obtainCompact(IPC.msg.SET_POS, Protocol.sourceId(SOURCE), data);
+    }
+
+    private int parcelSize(Message message) {
+        Parcel p = Parcel.obtain();
+        message.writeToParcel(p, 0);
+        int size = p.dataSize();
+        p.recycle();
+        return size;
+    }
+
+    private double roundtrip(boolean compact) {
+        Protocol.LocationData l = new Protocol.LocationData();
+        double sum = 0;
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ROUNDS; i++) {
+            Message message = compact ? compactMessage() : legacyMessage();
+            Parcel p = Parcel.obtain();
+            message.writeToParcel(p, 0);
+            message.recycle();
+
+            p.setDataPosition(0);
+            Message in = Message.CREATOR.createFromParcel(p);
+            Bundle bundle = in.getData();
+            if (compact) {
+                Protocol.decodeLocation(bundle.getByteArray(Protocol.KEY), l);
+                sum += l.latitude;
+            } else {
+                bundle.getString("source", "");
+                sum += bundle.getDouble("latitude", 0);
+                bundle.getDouble("longitude", 0);
+                bundle.getDouble("altitude", 0);
+                bundle.getFloat("bearing", 0);
+                bundle.getFloat("speed", 0);
+                bundle.getFloat("accuracy", 0);
+            }
+            in.recycle();
+            p.recycle();
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+
+        assertTrue(sum > 0);
+        return (double) elapsed / ROUNDS;
+    }
+
+    public void testParcelSize() {
+        int legacy = parcelSize(legacyMessage());
+        int compact = parcelSize(compactMessage());
+        Log.i(TAG, "SET_POS parcel size: legacy " + legacy + " B, compact " + compact + " B");
+
+        assertTrue(compact < legacy);
+    }
+
+    public void testRoundtripTime() {
+        // warm up
+        roundtrip(false);
+        roundtrip(true);
+
+        double legacy = roundtrip(false);
+        double compact = roundtrip(true);
+        Log.i(TAG, "SET_POS encode+decode: legacy " + legacy + " ns, compact " + compact + " ns");
+    }
+
+    public void testLocationRoundtrip() {
+        byte[] data = Protocol.encodeLocation(new byte[Protocol.LOCATION_SIZE],
+                -33.8688, 151.2093, 58.5, 359.9f, 4.2f, 3.0f, 1471234567890L);
+        Protocol.LocationData l = new Protocol.LocationData();
+        assertTrue(Protocol.decodeLocation(data, l));
+
+        assertEquals(-33.8688, l.latitude, 0);
+        assertEquals(151.2093, l.longitude, 0);
+        assertEquals(58.5, l.altitude, 0);
+        assertEquals(359.9f, l.bearing, 0);
+        assertEquals(4.2f, l.speed, 0);
+        assertEquals(3.0f, l.accuracy, 0);
+        assertEquals(1471234567890L, l.time);
+    }
+}
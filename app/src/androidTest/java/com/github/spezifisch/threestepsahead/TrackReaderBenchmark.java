@@ -0,0 +1,89 @@
+package com.github.spezifisch.threestepsahead;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.spezifisch.threestepsahead.utils.Geodesy;
+import com.github.spezifisch.threestepsahead.utils.TrackReader;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Streams a 100k point CSV track and interpolates 10 ticks per segment, like TrackPlayer does.
+ * Results are logged with tag TrackReaderBenchmark.
+ */
+public class TrackReaderBenchmark extends TestCase {
+    static final String TAG = "TrackReaderBenchmark";
+    static final int POINTS = 100000;
+    static final int TICKS_PER_SEGMENT = 10;
+
+    private File track;
+
+    @Override
+    protected void setUp() throws IOException {
+        track = File.createTempFile("track", ".csv");
+        Writer w = new FileWriter(track);
+        w.write("latitude,longitude,altitude,time\n");
+        long time = 1470000000000L;
+        for (int i = 0; i < POINTS; i++) {
+            // 1 s, ~1.4 m apart
+            w.write((52.5 + i * 1e-5 * 1.26) + "," + 13.4 + ",34," + (time + i * 1000L) + "\n");
+        }
+        w.close();
+    }
+
+    @Override
+    protected void tearDown() {
+        track.delete();
+    }
+
+    public void testReplay() throws IOException {
+        TrackReader reader = TrackReader.open(track);
+        TrackReader.Waypoint from = new TrackReader.Waypoint(), to = new TrackReader.Waypoint();
+        Geodesy.Segment segment = new Geodesy.Segment();
+        assertTrue(reader.next(from));
+
+        Runtime rt = Runtime.getRuntime();
+        long memBefore = rt.totalMemory() - rt.freeMemory();
+
+        int segments = 0;
+        double sum = 0;
+        long readNs = 0, tickNs = 0;
+        while (true) {
+            long t0 = SystemClock.elapsedRealtimeNanos();
+            if (!reader.next(to)) {
+                break;
+            }
+            segment.set(from.latitude, from.longitude, to.latitude, to.longitude);
+            long t1 = SystemClock.elapsedRealtimeNanos();
+            for (int k = 0; k < TICKS_PER_SEGMENT; k++) {
+                segment.interpolate((double) k / TICKS_PER_SEGMENT);
+                sum += segment.latitude;
+            }
+            long t2 = SystemClock.elapsedRealtimeNanos();
+            readNs += t1 - t0;
+            tickNs += t2 - t1;
+
+            TrackReader.Waypoint tmp = from;
+            from = to;
+            to = tmp;
+            segments++;
+        }
+        reader.close();
+
+        long memAfter = rt.totalMemory() - rt.freeMemory();
+        double perSegment = (double) readNs / segments;
+        double perTick = (double) tickNs / (segments * TICKS_PER_SEGMENT);
+        Log.i(TAG, segments + " segments: read " + perSegment + " ns/segment, interpolate " + perTick +
+                " ns/tick, heap delta " + (memAfter - memBefore) / 1024 + " KiB");
+
+        assertEquals(POINTS - 1, segments);
+        assertTrue(sum > 0);
+        assertTrue(perTick < 1e6);
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.spezifisch.threestepsahead.hooks;
+
+import android.content.ComponentName;
+import android.location.Location;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Messenger;
+import android.util.Log;
+
+import com.github.spezifisch.threestepsahead.AppTable;
+import com.github.spezifisch.threestepsahead.IPC;
+
+import de.robv.android.xposed.XC_MethodHook;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Counts allocations per ListenerTransport location callback after warm-up, through the hook
+ * itself and Main.connectAndRun() with a local Handler standing in for the service.
+ * The old path (new Random per fix, unconditional log line) is reproduced for comparison.
+ * Results are logged with tag ListenerTransportBenchmark.
+ */
+public class ListenerTransportBenchmark extends TestCase {
+    static final String TAG = "ListenerTransportBenchmark";
+    static final int ROUNDS = 1000;
+
+    private GPS gps;
+    private GPS.ListenerTransportHook hook;
+    private XC_MethodHook.MethodHookParam param;
+    private Location realLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+
+        Main.Shared.packageName = "benchmark";
+        Main.Shared.settings = new IPC.SettingsClient();
+        Main.Shared.settings.setTagSuffix("Hook-benchmark");
+        Main.State.rand = new Random(0);
+        Main.updateLocation(0);
+
+        // connected and enabled, the first callback asks the stand-in service for GET_POS
+        Main.Shared.serviceClient = new IPC.Client(Main.Shared.settings);
+        Main.Shared.settings.setClient(Main.Shared.serviceClient);
+        Messenger service = new Messenger(new Handler());
+        Main.Shared.serviceClient.onServiceConnected(new ComponentName("benchmark", "Service"), service.getBinder());
+        Message state = Message.obtain(null, IPC.msg.SET_STATE);
+        state.getData().putBoolean("enabled", true);
+        Main.Shared.settings.handleMessage(state);
+        Main.State.locationFromSettings = true;
+
+        gps = new GPS(AppTable.FEATURE_GPS);
+        hook = gps.new ListenerTransportHook();
+        realLocation = new Location("gps");
+        realLocation.setLatitude(52.52);
+        realLocation.setLongitude(13.40);
+        realLocation.setAccuracy(5.0f);
+        realLocation.setSpeed(1.0f);
+        realLocation.setBearing(90.0f);
+
+        param = new XC_MethodHook.MethodHookParam();
+        param.args = new Object[]{Message.obtain(null, 1, realLocation)}; // TYPE_LOCATION_CHANGED
+    }
+
+    // what ListenerTransportHook did per callback before
+    private void oldCallback(long time) {
+        assertTrue(Main.connectAndRun());
+        Main.State.rand = new Random(time + Main.Settings.RAND_ADD);
+        realLocation.setTime(time);
+        Location l = gps.onLocationChanged(realLocation);
+        String log = Main.Shared.packageName + " | " + time +
+                " ListenerTransport Location faked(" + l.getTime() + ") " + l;
+        assertNotNull(log);
+    }
+
+    private void newCallback(long time) throws Throwable {
+        realLocation.setTime(time);
+        hook.beforeHookedMethod(param);
+    }
+
+    private double allocsPerCallback(boolean old) throws Throwable {
+        long time = 1000;
+        // warm up
+        for (int i = 0; i < ROUNDS; i++) {
+            if (old) {
+                oldCallback(time += 1000);
+            } else {
+                newCallback(time += 1000);
+            }
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < ROUNDS; i++) {
+            if (old) {
+                oldCallback(time += 1000);
+            } else {
+                newCallback(time += 1000);
+            }
+        }
+        Debug.stopAllocCounting();
+
+        return (double) Debug.getThreadAllocCount() / ROUNDS;
+    }
+
+    public void testAllocationsPerCallback() throws Throwable {
+        double before = allocsPerCallback(true);
+        double after = allocsPerCallback(false);
+        Log.i(TAG, "allocations per callback: old path " + before + ", new path " + after);
+
+        assertEquals(0.0, after, 0.01);
+    }
+}
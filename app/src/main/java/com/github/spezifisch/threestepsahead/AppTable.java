@@ -0,0 +1,144 @@
+package com.github.spezifisch.threestepsahead;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Apps to hook and what to fake in each of them.
+ *
+ * The user edits a text form, one app per line: "package feature...", features being
+ * gps, fused, status and sensors. The app compiles it into a small binary file next to the
+ * preferences which the hooks read once in initZygote.
+ */
+public class AppTable {
+    static final String SUFFIX = ".apps";
+    static final int MAGIC = 0x54534150; // "TSAP"
+
+    // features
+    public static final int FEATURE_GPS = 1;        // LocationManager listeners, getLastKnownLocation
+    public static final int FEATURE_FUSED = 2;      // Play Services FusedLocationApi
+    public static final int FEATURE_STATUS = 4;     // GpsStatus, GnssStatus
+    public static final int FEATURE_SENSORS = 8;
+
+    static final String[] FEATURE_NAMES = {"gps", "fused", "status", "sensors"};
+
+    public static final String DEFAULT =
+            "com.google.android.gms gps fused status\n" +
+            "com.vonglasow.michael.satstat gps fused status\n" +
+            "com.nianticlabs.pokemongo gps fused status\n" +
+            "com.google.android.gms.location.sample.locationupdates gps fused status\n";
+
+    public static File getFile(File prefsDir, String name) {
+        return new File(prefsDir, name + SUFFIX);
+    }
+
+    /**
+     * Parse the text form, unknown features and empty lines are ignored.
+     */
+    public static Map<String, Integer> parse(String text) {
+        Map<String, Integer> apps = new TreeMap<>();
+        for (String line: text.split("\n")) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].isEmpty() || words[0].startsWith("#")) {
+                continue;
+            }
+
+            int features = 0;
+            for (int i = 1; i < words.length; i++) {
+                for (int f = 0; f < FEATURE_NAMES.length; f++) {
+                    if (FEATURE_NAMES[f].equalsIgnoreCase(words[i])) {
+                        features |= 1 << f;
+                    }
+                }
+            }
+            apps.put(words[0], features);
+        }
+        return apps;
+    }
+
+    public static String format(Map<String, Integer> apps) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> app: apps.entrySet()) {
+            sb.append(app.getKey());
+            for (int f = 0; f < FEATURE_NAMES.length; f++) {
+                if ((app.getValue() & (1 << f)) != 0) {
+                    sb.append(' ').append(FEATURE_NAMES[f]);
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compile the table to file. Written to a temporary file and renamed, so readers never see half of it.
+     */
+    public static void write(File file, Map<String, Integer> apps) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(MAGIC);
+            out.writeInt(apps.size());
+            for (Map.Entry<String, Integer> app: apps.entrySet()) {
+                out.writeInt(app.getValue());
+                out.writeUTF(app.getKey());
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        tmp.setReadable(true, false);
+        if (!tmp.renameTo(file)) {
+            throw new IOException("can't replace " + file);
+        }
+    }
+
+    /**
+     * Load a compiled table.
+     * @return package name -> features, null if the file is missing or broken
+     */
+    public static HashMap<String, Integer> read(File file) {
+        if (!file.canRead()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+
+            int count = in.readInt();
+            HashMap<String, Integer> apps = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                int features = in.readInt();
+                apps.put(in.readUTF(), features);
+            }
+            return apps;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // read is done
+                }
+            }
+        }
+    }
+}
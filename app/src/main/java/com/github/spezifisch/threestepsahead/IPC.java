@@ -8,14 +8,19 @@ import android.content.ServiceConnection;
 import android.location.Location;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.util.HashSet;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.HashMap;
 
 import de.robv.android.xposed.XposedBridge;
 
@@ -25,24 +30,35 @@ public class IPC {
 
     static public class msg {
         // internal
-        static final int CONNECTED = 1;
+        public static final int CONNECTED = 1;
+        public static final int SHARED_LOCATION = 2; // master -> client, fd of SharedLocation record
+        public static final int PROTOCOL = 3; // master -> client, negotiated Protocol version in arg1,
+                                              // noise session key (long) in bundle "session"
+
+        // capabilities sent with CONNECTED in arg1 (see Protocol.packConnect),
+        // arg2 is the max. SET_POS rate in Hz (0: no limit)
+        public static final int CAP_SHARED_LOCATION = 1;
 
         // setter
-        static final int SETTER = 100; // invalid
-        static final int SET_POS = 101;
-        static final int SET_STATE = 102;
-        static final int SET_TLE = 103;
+        public static final int SETTER = 100; // invalid
+        public static final int SET_POS = 101;
+        public static final int SET_STATE = 102;
+        public static final int SET_TLE = 103;
 
         // getter
-        static final int GETTER = 200; // invalid
-        static final int GET_TLE = 201;
-        static final int GET_POS = 202;
+        public static final int GETTER = 200; // invalid
+        public static final int GET_TLE = 201;
+        public static final int GET_POS = 202;
     }
 
     // TODO combine Client and SettingsClient?
     static public class Client implements ServiceConnection {
         private boolean inXposed = false;
         private boolean connected = false;
+        private boolean bound = false;
+        private boolean useSharedLocation = false;
+        private int maxUpdateRate = 0;
+        private String sourceTag = "";
         private Messenger messenger;
         private Messenger service;
         private Handler incomingHandler;
@@ -72,11 +88,29 @@ public class IPC {
             inXposed = state;
         }
 
+        // ask master for the SharedLocation record instead of SET_POS messages
+        public void setUseSharedLocation(boolean state) {
+            useSharedLocation = state;
+        }
+
+        // tag of the SettingsClient, told to master once on connect
+        public void setSourceTag(String tag) {
+            sourceTag = tag;
+        }
+
+        // max. rate in Hz at which master relays SET_POS to us, 0 (default) for every position
+        public void setMaxUpdateRate(int hz) {
+            maxUpdateRate = hz;
+        }
+
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             log("Service connected!");
             this.service = new Messenger(service);
-            Message message = Message.obtain(null, msg.CONNECTED, 0, 0);
+            int caps = useSharedLocation ? msg.CAP_SHARED_LOCATION : 0;
+            Message message = Message.obtain(null, msg.CONNECTED,
+                    Protocol.packConnect(caps, Protocol.VERSION), maxUpdateRate);
+            message.getData().putString("source", sourceTag);
             message.replyTo = messenger;
             try {
                 this.service.send(message);
@@ -99,7 +133,9 @@ public class IPC {
         }
 
         public boolean connect(Context context) {
-            if (isConnected()) {
+            if (isConnected() || bound) {
+                // connected or waiting for onServiceConnected. the binding stays alive and
+                // Android reconnects it if the service gets restarted.
                 return true;
             }
             ComponentName cn;
@@ -118,7 +154,8 @@ public class IPC {
 
                 Intent intent = new Intent();
                 intent.setComponent(cn);
-                if (!context.bindService(intent, this, Context.BIND_AUTO_CREATE)) {
+                bound = context.bindService(intent, this, Context.BIND_AUTO_CREATE);
+                if (!bound) {
                     Toast.makeText(AndroidAppHelper.currentApplication(), "Unable to start service! Did you reboot after updating?", Toast.LENGTH_SHORT).show();
                 }
                 return true;
@@ -139,16 +176,265 @@ public class IPC {
         void OnTLEUpdate();
     }
 
+    // SET message as relayed by master, built in the format each client understands
+    static class Payload {
+        final int what;
+        final int source;
+        final String sourceTag;
+        final byte[] data;
+        private Bundle compact, legacy;
+
+        // legacy may be null, it's built from data if a legacy client needs it
+        Payload(int what, String sourceTag, int source, byte[] data, Bundle legacy) {
+            this.what = what;
+            this.sourceTag = sourceTag;
+            this.source = source;
+            this.data = data;
+            this.legacy = legacy;
+        }
+
+        Message toMessage(int protocol) {
+            if (protocol >= Protocol.V1) {
+                if (compact == null) {
+                    compact = new Bundle();
+                    compact.putByteArray(Protocol.KEY, data);
+                }
+                Message message = Message.obtain(null, what, Protocol.V1, source);
+                message.setData(compact);
+                return message;
+            }
+
+            if (legacy == null) {
+                legacy = toLegacyBundle();
+            }
+            Message message = Message.obtain(null, what);
+            message.setData(legacy);
+            return message;
+        }
+
+        private Bundle toLegacyBundle() {
+            Bundle bundle = new Bundle();
+            // legacy clients recognize their own messages by it
+            bundle.putString("source", sourceTag);
+
+            switch (what) {
+                case msg.SET_POS:
+                    Protocol.LocationData l = new Protocol.LocationData();
+                    Protocol.decodeLocation(data, l);
+                    bundle.putDouble("latitude", l.latitude);
+                    bundle.putDouble("longitude", l.longitude);
+                    bundle.putDouble("altitude", l.altitude);
+                    bundle.putFloat("bearing", l.bearing);
+                    bundle.putFloat("speed", l.speed);
+                    bundle.putFloat("accuracy", l.accuracy);
+                    break;
+
+                case msg.SET_STATE:
+                    bundle.putBoolean("enabled", Protocol.decodeState(data, true));
+                    break;
+
+                case msg.SET_TLE:
+                    bundle.putString("tle", Protocol.decodeTLE(data));
+                    break;
+            }
+            return bundle;
+        }
+    }
+
+    // Fans out SET messages from master to clients on its own thread.
+    // Every client has one pending slot per message type, so only the newest value gets delivered,
+    // and SET_POS is throttled to the max. rate a client asked for on connect. Clients that didn't
+    // ask (rate 0) get every position. Dead clients are dropped.
+    static public class Relay extends Handler {
+        private static final String TAG = "Relay";
+
+        // Handler messages
+        private static final int ADD = 1;
+        private static final int REMOVE = 2;
+        private static final int PUBLISH = 3;
+        private static final int FLUSH = 4;
+
+        static class Target implements IBinder.DeathRecipient {
+            final Relay relay;
+            final Messenger messenger;
+            final boolean sharedLocation;
+            final int protocol;
+            final long minPosInterval; // ms, 0 for no limit
+            final Payload[] pending = new Payload[msg.GETTER - msg.SETTER];
+            long lastPosSent = 0;
+
+            Target(Relay relay, Messenger messenger, boolean sharedLocation, int protocol, int maxRate) {
+                this.relay = relay;
+                this.messenger = messenger;
+                this.sharedLocation = sharedLocation;
+                this.protocol = protocol;
+                this.minPosInterval = (maxRate > 0) ? 1000 / maxRate : 0;
+            }
+
+            @Override
+            public void binderDied() {
+                relay.remove(messenger);
+            }
+        }
+
+        private final HandlerThread thread;
+        private final HashMap<IBinder, Target> targets = new HashMap<>();
+
+        private Relay(HandlerThread thread) {
+            super(thread.getLooper());
+            this.thread = thread;
+        }
+
+        public static Relay start() {
+            HandlerThread t = new HandlerThread(TAG);
+            t.start();
+            return new Relay(t);
+        }
+
+        public void quit() {
+            thread.quit();
+        }
+
+        public void add(Messenger m, boolean sharedLocation, int protocol, int maxRate) {
+            obtainMessage(ADD, new Target(this, m, sharedLocation, protocol, maxRate)).sendToTarget();
+        }
+
+        public void remove(Messenger m) {
+            obtainMessage(REMOVE, m).sendToTarget();
+        }
+
+        // the payload is shared by all clients and must not be modified afterwards
+        public void publish(Payload payload) {
+            obtainMessage(PUBLISH, payload).sendToTarget();
+        }
+
+        @Override
+        public void handleMessage(Message message) {
+            switch (message.what) {
+                case ADD: {
+                    Target t = (Target) message.obj;
+                    IBinder binder = t.messenger.getBinder();
+                    try {
+                        binder.linkToDeath(t, 0);
+                    } catch (RemoteException e) {
+                        Log.d(TAG, "client died before adding: " + t.messenger);
+                        break;
+                    }
+                    Target old = targets.put(binder, t);
+                    if (old != null) {
+                        binder.unlinkToDeath(old, 0);
+                        removeMessages(FLUSH, old);
+                    }
+                    break;
+                }
+
+                case REMOVE: {
+                    IBinder binder = ((Messenger) message.obj).getBinder();
+                    Target t = targets.remove(binder);
+                    if (t != null) {
+                        binder.unlinkToDeath(t, 0);
+                        removeMessages(FLUSH, t);
+                        Log.d(TAG, "client removed: " + t.messenger);
+                    }
+                    break;
+                }
+
+                case PUBLISH: {
+                    Payload payload = (Payload) message.obj;
+                    // copy, flush may remove targets
+                    Target[] ts = targets.values().toArray(new Target[targets.size()]);
+                    for (Target t : ts) {
+                        if (payload.what == msg.SET_POS && t.sharedLocation) {
+                            // reads location from shared record
+                            continue;
+                        }
+                        // newest value wins
+                        t.pending[payload.what - msg.SETTER] = payload;
+                        flush(t);
+                    }
+                    break;
+                }
+
+                case FLUSH:
+                    flush((Target) message.obj);
+                    break;
+            }
+        }
+
+        private void flush(Target t) {
+            long now = SystemClock.uptimeMillis();
+
+            for (int i = 0; i < t.pending.length; i++) {
+                Payload payload = t.pending[i];
+                if (payload == null) {
+                    continue;
+                }
+
+                int what = msg.SETTER + i;
+                if (what == msg.SET_POS) {
+                    long next = t.lastPosSent + t.minPosInterval;
+                    if (now < next) {
+                        // too early for this client, send whatever is newest then
+                        if (!hasMessages(FLUSH, t)) {
+                            sendMessageAtTime(obtainMessage(FLUSH, t), next);
+                        }
+                        continue;
+                    }
+                    t.lastPosSent = now;
+                }
+
+                Message mnew = payload.toMessage(t.protocol);
+                t.pending[i] = null;
+                try {
+                    t.messenger.send(mnew);
+                } catch (RemoteException e) {
+                    // don't retry, client is gone
+                    Log.d(TAG, "send failed, removing client: " + t.messenger);
+                    targets.remove(t.messenger.getBinder());
+                    t.messenger.getBinder().unlinkToDeath(t, 0);
+                    removeMessages(FLUSH, t);
+                    return;
+                }
+            }
+        }
+    }
+
     static public class SettingsClient extends Handler {
         private String BASE_TAG = "SettingsClient", TAG = BASE_TAG;
+        private int sourceId = Protocol.sourceId(TAG);
         private boolean inXposed = false;
 
+        // Protocol version for messages to master, negotiated on connect
+        protected int protocol = Protocol.LEGACY;
+        // scratch for decoding locations
+        private Protocol.LocationData locationData = new Protocol.LocationData();
+
         // IPC.Client object for communication with the Service
         protected Client client;
 
-        // List of connected clients (for Service)
-        protected HashSet<Messenger> clients;
+        // relays messages to connected clients (for Service)
+        protected Relay relay;
         protected boolean isMaster = false;
+        // master: tags of the clients by source id, for relaying V1 messages to legacy clients
+        private final HashMap<Integer, String> sourceTags = new HashMap<>();
+
+        // location record shared with clients (written by master, read by clients)
+        protected SharedLocation sharedLocation;
+        protected StateJournal journal;
+
+        // master: location in the SettingsSnapshot for hooks without connection, written at
+        // most every SNAPSHOT_DELAY_ms
+        static final long SNAPSHOT_DELAY_ms = 1000;
+        private boolean snapshotScheduled = false;
+        private final Runnable snapshotWriter = new Runnable() {
+            @Override
+            public void run() {
+                snapshotScheduled = false;
+                if (settingsStorage != null) {
+                    settingsStorage.saveSnapshotLocation(loc);
+                }
+            }
+        };
 
         // callbacks for user class
         protected LocationUpdateListener locationUpdateListener;
@@ -162,15 +448,20 @@ public class IPC {
         private Location loc;
         private boolean enabled;
         private String tle = "";
+        // key for CounterRandom noise, the same in all clients of one master
+        private volatile long sessionKey = 0;
 
         public SettingsClient() {
             loc = new Location("");
             enabled = false;
-            clients = new HashSet<>();
         }
 
         public void setTagSuffix(String tag) {
             TAG = BASE_TAG + tag;
+            sourceId = Protocol.sourceId(TAG);
+            if (client != null) {
+                client.setSourceTag(TAG);
+            }
         }
 
         // log to Xposed or Android facility
@@ -189,11 +480,32 @@ public class IPC {
         // set Client whose Messenger is used to communicate with Master
         public void setClient(Client c) {
             client = c;
+            if (client != null) {
+                client.setSourceTag(TAG);
+            }
         }
 
         // master has the duty to relay messages to other clients
         public void setMaster(boolean state) {
             isMaster = state;
+
+            if (isMaster) {
+                // talking to myself
+                protocol = Protocol.VERSION;
+                sessionKey = new SecureRandom().nextLong();
+            }
+
+            if (isMaster && relay == null) {
+                relay = Relay.start();
+            } else if (!isMaster && relay != null) {
+                relay.quit();
+                relay = null;
+            }
+
+            if (!isMaster && snapshotScheduled) {
+                removeCallbacks(snapshotWriter);
+                snapshotWriter.run();
+            }
         }
 
         // load settings from file
@@ -208,6 +520,42 @@ public class IPC {
             enabled = settingsStorage.isEnabled();
         }
 
+        // master: persist every state change, the journal is newer than the settings file
+        public void setJournal(StateJournal j) {
+            journal = j;
+            if (journal == null) {
+                return;
+            }
+
+            StateJournal.State state = new StateJournal.State();
+            if (journal.getLatest(state)) {
+                loc.setLatitude(state.latitude);
+                loc.setLongitude(state.longitude);
+                loc.setAltitude(state.altitude);
+                loc.setTime(state.time);
+                loc.setBearing(state.bearing);
+                loc.setSpeed(state.speed);
+                loc.setAccuracy(state.accuracy);
+                enabled = state.enabled;
+                scheduleSnapshot();
+            }
+        }
+
+        private void scheduleSnapshot() {
+            if (!snapshotScheduled) {
+                snapshotScheduled = true;
+                postDelayed(snapshotWriter, SNAPSHOT_DELAY_ms);
+            }
+        }
+
+        // master: publish locations to clients through this record
+        public void setSharedLocation(SharedLocation sl) {
+            sharedLocation = sl;
+            if (sharedLocation != null) {
+                sharedLocation.write(loc);
+            }
+        }
+
         public void saveSettings() {
             settingsStorage.saveLocation(loc);
             settingsStorage.saveState(enabled);
@@ -232,6 +580,10 @@ public class IPC {
 
         // settings
         public Location getLocation() {
+            if (sharedLocation != null && !isMaster) {
+                // only changes loc if master published a new location
+                sharedLocation.read(loc);
+            }
             return loc;
         }
 
@@ -247,6 +599,10 @@ public class IPC {
             return tle;
         }
 
+        public long getSessionKey() {
+            return sessionKey;
+        }
+
         // IPC receiver
         @Override
         public void handleMessage(Message message) {
@@ -255,54 +611,96 @@ public class IPC {
                     log("js binder msg " + message);
                 }
                 Bundle bundle = message.getData();
-                boolean self_message = false;
-
-                if (bundle != null) {
-                    // relay SET messages to clients
-                    if (isMaster && message.what > msg.SETTER && message.what < msg.GETTER) {
-                        for (Messenger c : clients) {
-                            if (c == client.getMessenger()) {
-                                // it's me
-                                continue;
-                            }
 
-                            if (DEBUG) {
-                                log("relay to client " + c);
-                            }
+                // SET/GET messages are either compact (Protocol.V1+) or legacy Bundles
+                boolean compact = message.what > msg.SETTER && message.arg1 >= Protocol.V1;
+                byte[] data = compact ? bundle.getByteArray(Protocol.KEY) : null;
 
-                            // build new message with same data. can't reuse same message object
-                            Message mnew = Message.obtain(null, message.what);
-                            mnew.setData(bundle);
-                            send(c, mnew);
-                        }
-                    }
-
-                    // don't process message from myself
-                    if (bundle.getString("source", "").equals(TAG)) {
-                        self_message = true;
-                    }
+                // don't process message from myself
+                boolean self_message;
+                if (compact) {
+                    self_message = (message.arg2 == sourceId);
+                } else {
+                    self_message = bundle.getString("source", "").equals(TAG);
                 }
 
                 switch (message.what) {
                     case msg.CONNECTED:
+                        String tag = bundle.getString("source");
+                        if (isMaster && tag != null) {
+                            sourceTags.put(Protocol.sourceId(tag), tag);
+                        }
                         if (client == null || message.replyTo != client.getMessenger()) {
                             log("Client connected: " + message.replyTo);
-                            clients.add(message.replyTo);
+
+                            int caps = Protocol.connectCaps(message.arg1);
+                            int version = Protocol.negotiate(Protocol.connectVersion(message.arg1));
+                            if (version >= Protocol.V1) {
+                                // legacy clients wouldn't understand this
+                                Message reply = Message.obtain(null, msg.PROTOCOL, version, 0);
+                                reply.getData().putLong("session", sessionKey);
+                                send(message.replyTo, reply);
+                            }
+
+                            boolean shared = (caps & msg.CAP_SHARED_LOCATION) != 0 &&
+                                    sendSharedLocation(message.replyTo);
+                            if (relay != null) {
+                                relay.add(message.replyTo, shared, version, message.arg2);
+                            }
                         } else {
                             log("Master connected: " + message.replyTo);
                         }
                         break;
 
+                    case msg.PROTOCOL:
+                        protocol = Protocol.negotiate(message.arg1);
+                        sessionKey = bundle.getLong("session", 0);
+                        log("using protocol version " + protocol);
+                        break;
+
+                    case msg.SHARED_LOCATION:
+                        ParcelFileDescriptor pfd = bundle.getParcelable("fd");
+                        if (pfd != null) {
+                            try {
+                                sharedLocation = SharedLocation.openReader(pfd);
+                                log("got shared location record");
+                            } finally {
+                                pfd.close();
+                            }
+                        }
+                        break;
+
                     case msg.SET_POS:
-                        if (bundle == null) {
-                            return;
+                        if (compact) {
+                            if (!Protocol.decodeLocation(data, locationData)) {
+                                return;
+                            }
+                            loc.setLatitude(locationData.latitude);
+                            loc.setLongitude(locationData.longitude);
+                            loc.setAltitude(locationData.altitude);
+                            loc.setBearing(locationData.bearing);
+                            loc.setSpeed(locationData.speed);
+                            loc.setAccuracy(locationData.accuracy);
+                            loc.setTime(locationData.time);
+                        } else {
+                            loc.setLatitude(bundle.getDouble("latitude", 0));
+                            loc.setLongitude(bundle.getDouble("longitude", 0));
+                            loc.setAltitude(bundle.getDouble("altitude", 0));
+                            loc.setBearing(bundle.getFloat("bearing", 0));
+                            loc.setSpeed(bundle.getFloat("speed", 0));
+                            loc.setAccuracy(bundle.getFloat("accuracy", 0));
+                        }
+
+                        if (isMaster) {
+                            if (sharedLocation != null) {
+                                sharedLocation.write(loc);
+                            }
+                            if (journal != null) {
+                                journal.record(loc, enabled);
+                            }
+                            scheduleSnapshot();
+                            relayToClients(message, compact ? data : encodeLocation(loc), compact ? null : bundle);
                         }
-                        loc.setLatitude(bundle.getDouble("latitude", 0));
-                        loc.setLongitude(bundle.getDouble("longitude", 0));
-                        loc.setAltitude(bundle.getDouble("altitude", 0));
-                        loc.setBearing(bundle.getFloat("bearing", 0));
-                        loc.setSpeed(bundle.getFloat("speed", 0));
-                        loc.setAccuracy(bundle.getFloat("accuracy", 0));
 
                         // call back
                         if (locationUpdateListener != null && !self_message) {
@@ -311,10 +709,18 @@ public class IPC {
                         break;
 
                     case msg.SET_STATE:
-                        if (bundle == null) {
-                            return;
+                        if (compact) {
+                            enabled = Protocol.decodeState(data, true);
+                        } else {
+                            enabled = bundle.getBoolean("enabled", true);
+                        }
+
+                        if (isMaster) {
+                            if (journal != null) {
+                                journal.record(loc, enabled);
+                            }
+                            relayToClients(message, compact ? data : Protocol.encodeState(enabled), compact ? null : bundle);
                         }
-                        enabled = bundle.getBoolean("enabled", true);
 
                         // call back
                         if (stateUpdateListener != null && !self_message) {
@@ -324,10 +730,15 @@ public class IPC {
 
                     case msg.SET_TLE:
                         log("got TLE update");
-                        if (bundle == null) {
-                            return;
+                        if (compact) {
+                            tle = Protocol.decodeTLE(data);
+                        } else {
+                            tle = bundle.getString("tle", "");
+                        }
+
+                        if (isMaster) {
+                            relayToClients(message, compact ? data : Protocol.encodeTLE(tle), compact ? null : bundle);
                         }
-                        tle = bundle.getString("tle", "");
 
                         // call back
                         if (tleUpdateListener != null && !self_message) {
@@ -338,7 +749,7 @@ public class IPC {
                     case msg.GET_TLE:
                         if (isMaster) {
                             log("master responding to GET_TLE");
-                            sendTLE(message.replyTo);
+                            sendTLE(message.replyTo, compact ? Protocol.VERSION : Protocol.LEGACY);
                         }
                         break;
 
@@ -346,7 +757,7 @@ public class IPC {
                         if (isMaster) {
                             log("master responding to GET_POS");
                             if (loc != null) {
-                                sendLocation(message.replyTo, loc);
+                                sendLocation(message.replyTo, loc, compact ? Protocol.VERSION : Protocol.LEGACY);
                             } else {
                                 log("loc not set yet");
                             }
@@ -362,6 +773,24 @@ public class IPC {
             }
         }
 
+        // relay SET message to clients. legacy is the original Bundle if it came in legacy format
+        protected void relayToClients(Message message, byte[] data, Bundle legacy) {
+            // legacy clients compare the sender's tag, V1 senders told it on connect
+            String tag;
+            int source;
+            if (legacy == null) {
+                source = message.arg2;
+                tag = sourceTags.get(source);
+                if (tag == null) {
+                    tag = "";
+                }
+            } else {
+                tag = legacy.getString("source", "");
+                source = Protocol.sourceId(tag);
+            }
+            relay.publish(new Payload(message.what, tag, source, data, legacy));
+        }
+
         // IPC sender
         protected boolean send(Messenger m, Message message) {
             try {
@@ -391,20 +820,25 @@ public class IPC {
                 return false;
             }
 
-            return sendLocation(client.getService(), location);
+            return sendLocation(client.getService(), location, protocol);
         }
 
-        public boolean sendLocation(Messenger messenger, Location location) {
-            Message message = Message.obtain(null, msg.SET_POS);
-            Bundle bundle = new Bundle();
-            bundle.putString("source", TAG);
-            bundle.putDouble("latitude", location.getLatitude());
-            bundle.putDouble("longitude", location.getLongitude());
-            bundle.putDouble("altitude", location.getAltitude());
-            bundle.putFloat("bearing", location.getBearing());
-            bundle.putFloat("speed", location.getSpeed());
-            bundle.putFloat("accuracy", location.getAccuracy());
-            message.setData(bundle);
+        public boolean sendLocation(Messenger messenger, Location location, int version) {
+            Message message;
+            if (version >= Protocol.V1) {
+                message = obtainCompact(msg.SET_POS, encodeLocation(location));
+            } else {
+                message = Message.obtain(null, msg.SET_POS);
+                Bundle bundle = new Bundle();
+                bundle.putString("source", TAG);
+                bundle.putDouble("latitude", location.getLatitude());
+                bundle.putDouble("longitude", location.getLongitude());
+                bundle.putDouble("altitude", location.getAltitude());
+                bundle.putFloat("bearing", location.getBearing());
+                bundle.putFloat("speed", location.getSpeed());
+                bundle.putFloat("accuracy", location.getAccuracy());
+                message.setData(bundle);
+            }
 
             if (DEBUG) {
                 log("sendLocation: " + location);
@@ -412,33 +846,95 @@ public class IPC {
             return send(messenger, message);
         }
 
-        public boolean sendState(boolean enabled) {
-            Message message = Message.obtain(null, msg.SET_STATE);
+        protected byte[] encodeLocation(Location location) {
+            return Protocol.encodeLocation(new byte[Protocol.LOCATION_SIZE],
+                    location.getLatitude(), location.getLongitude(), location.getAltitude(),
+                    location.getBearing(), location.getSpeed(), location.getAccuracy(), location.getTime());
+        }
+
+        // build V1 message, data may be null for requests
+        protected Message obtainCompact(int what, byte[] data) {
+            return obtainCompact(what, sourceId, data);
+        }
+
+        static Message obtainCompact(int what, int sourceId, byte[] data) {
+            Message message = Message.obtain(null, what, Protocol.V1, sourceId);
+            if (data != null) {
+                Bundle bundle = new Bundle();
+                bundle.putByteArray(Protocol.KEY, data);
+                message.setData(bundle);
+            }
+            return message;
+        }
+
+        // build legacy message with source tag
+        protected Message obtainLegacy(int what) {
+            Message message = Message.obtain(null, what);
             Bundle bundle = new Bundle();
             bundle.putString("source", TAG);
-            bundle.putBoolean("enabled", enabled);
             message.setData(bundle);
-
-            log("sendState: " + enabled);
-            return send(message);
+            return message;
         }
 
-        public boolean sendTLE(Messenger m) {
-            Message message = Message.obtain(null, msg.SET_TLE);
+        protected boolean sendSharedLocation(Messenger m) {
+            if (sharedLocation == null) {
+                return false;
+            }
+
+            ParcelFileDescriptor pfd;
+            try {
+                pfd = sharedLocation.openClientDescriptor();
+            } catch (IOException e) {
+                log("sendSharedLocation: can't open record");
+                e.printStackTrace();
+                return false;
+            }
+
+            Message message = Message.obtain(null, msg.SHARED_LOCATION);
             Bundle bundle = new Bundle();
             bundle.putString("source", TAG);
-            bundle.putString("tle", tle);
+            bundle.putParcelable("fd", pfd);
             message.setData(bundle);
 
+            log("sendSharedLocation: " + m);
+            boolean ok = send(m, message);
+            try {
+                // fd was duplicated while sending
+                pfd.close();
+            } catch (IOException e) {
+            }
+            return ok;
+        }
+
+        public boolean sendState(boolean enabled) {
+            Message message;
+            if (protocol >= Protocol.V1) {
+                message = obtainCompact(msg.SET_STATE, Protocol.encodeState(enabled));
+            } else {
+                message = obtainLegacy(msg.SET_STATE);
+                message.getData().putBoolean("enabled", enabled);
+            }
+
+            log("sendState: " + enabled);
+            return send(message);
+        }
+
+        public boolean sendTLE(Messenger m, int version) {
+            Message message;
+            if (version >= Protocol.V1) {
+                message = obtainCompact(msg.SET_TLE, Protocol.encodeTLE(tle));
+            } else {
+                message = obtainLegacy(msg.SET_TLE);
+                message.getData().putString("tle", tle);
+            }
+
             log("sendTLE: ...");
             return send(m, message);
         }
 
         public boolean requestTLE() {
-            Message message = Message.obtain(null, msg.GET_TLE);
-            Bundle bundle = new Bundle();
-            bundle.putString("source", TAG);
-            message.setData(bundle);
+            Message message = protocol >= Protocol.V1 ?
+                    obtainCompact(msg.GET_TLE, null) : obtainLegacy(msg.GET_TLE);
             message.replyTo = client.getMessenger();
 
             log("requestTLE: ...");
@@ -451,10 +947,8 @@ public class IPC {
                 return false;
             }
 
-            Message message = Message.obtain(null, msg.GET_POS);
-            Bundle bundle = new Bundle();
-            bundle.putString("source", TAG);
-            message.setData(bundle);
+            Message message = protocol >= Protocol.V1 ?
+                    obtainCompact(msg.GET_POS, null) : obtainLegacy(msg.GET_POS);
             message.replyTo = client.getMessenger();
 
             log("requestLocation: ...");
@@ -6,9 +6,12 @@ import android.content.Intent;
 import android.graphics.PixelFormat;
 import android.location.Location;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Messenger;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.Display;
@@ -19,16 +22,22 @@ import android.view.WindowManager;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
-import com.github.spezifisch.threestepsahead.utils.LocationHelper;
-import com.github.spezifisch.threestepsahead.utils.SpaceMan;
+import com.github.spezifisch.threestepsahead.utils.Geodesy;
+import com.github.spezifisch.threestepsahead.utils.Helper;
 import com.jmedeisis.bugstick.Joystick;
 import com.jmedeisis.bugstick.JoystickListener;
 
+import java.io.File;
+import java.io.IOException;
+
 public class JoystickService extends Service {
     static final String TAG = "JoystickService";
     static private JoystickService me;
     private static final boolean DEBUG = false;
 
+    // path of a GPX/KML/CSV track to replay, empty to stop
+    public static final String EXTRA_TRACK = "track";
+
     protected WindowManager windowManager;
     protected LinearLayout joystickView;
     protected boolean joystickViewAdded = false;
@@ -41,6 +50,13 @@ public class JoystickService extends Service {
     private IPC.SettingsClient settings = new IPC.SettingsClient();
     final Messenger messenger = new Messenger(settings);
     private IPC.Client serviceClient = new IPC.Client(settings);
+    private TrackPlayer trackPlayer;
+    private StateJournal journal;
+
+    // movement is simulated on its own thread, so UI jank doesn't skew its timing
+    private HandlerThread simThread;
+    private Handler simHandler;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -60,6 +76,7 @@ public class JoystickService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (joystickView != null) {
+            handleTrackIntent(intent);
             return START_STICKY;
         }
 
@@ -86,6 +103,10 @@ public class JoystickService extends Service {
         textBearing = (TextView)joystickView.findViewById(R.id.speed_rot);
         textSpeedTrans = (TextView)joystickView.findViewById(R.id.speed_trans);
 
+        simThread = new HandlerThread("Simulation", Process.THREAD_PRIORITY_DISPLAY);
+        simThread.start();
+        simHandler = new Handler(simThread.getLooper());
+
         // add callbacks for joystick events
         Joystick joystick = (Joystick)joystickView.findViewById(R.id.joystick);
         joystick.setJoystickListener(new MyJsListener());
@@ -94,6 +115,20 @@ public class JoystickService extends Service {
         settingsStorage = SettingsStorage.getSettingsStorage(getApplicationContext());
         // load settings from file
         settings.setSettingsStorage(settingsStorage);
+        // latest simulation state, survives crashes
+        try {
+            journal = StateJournal.open(getFilesDir());
+            settings.setJournal(journal);
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open state journal: " + e);
+        }
+
+        // location record shared with hooked apps
+        try {
+            settings.setSharedLocation(SharedLocation.createWriter(getCacheDir()));
+        } catch (IOException e) {
+            Log.e(TAG, "Can't create shared location record, falling back to messages");
+        }
 
         // connect to myself
         serviceClient.connect(getApplicationContext());
@@ -106,134 +141,222 @@ public class JoystickService extends Service {
         showJoystick(settingsStorage.isJoystickEnabled());
 
         // TODO use dynamic update
-        String tles = SpaceMan.readTest1(getApplicationContext());
+        String tles = Helper.readTLEs(getApplicationContext());
         settings.setTLE(tles);
 
+        trackPlayer = new TrackPlayer(settings, simThread.getLooper());
+        handleTrackIntent(intent);
+
         return START_REDELIVER_INTENT;
     }
 
+    private void handleTrackIntent(Intent intent) {
+        if (intent == null || !intent.hasExtra(EXTRA_TRACK)) {
+            return;
+        }
+
+        final String path = intent.getStringExtra(EXTRA_TRACK);
+        // settings' location is written on this thread, copy it here
+        final Location start = new Location(settings.getLocation());
+        simHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (path == null || path.isEmpty()) {
+                    trackPlayer.stop();
+                } else {
+                    trackPlayer.play(new File(path), start);
+                }
+            }
+        });
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (simThread != null) {
+            simHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    trackPlayer.stop();
+                }
+            });
+            simThread.quitSafely();
+        }
+        settings.setMaster(false);
+        if (journal != null) {
+            settings.setJournal(null);
+            journal.close();
+        }
         if (joystickView != null) {
             windowManager.removeView(joystickView);
         }
     }
 
-    // keep track of current velocity according to joystick
+    // keep track of current velocity according to joystick, runs on the simulation thread
     public class RunningMan {
         static final String TAG = "RunningMan";
+        static final long MAX_STEP_ns = 1000000000L; // max. step, avoid jumps
+        static final long MIN_STEP_ns = 5000000L;
 
         private final String speedBearingString = getString(R.string.bearing_value);
         private final String speedTransString = getString(R.string.speed_trans_value);
 
-        protected long last_step = -1;
+        // own copy, so the main thread handling our SET_POS echo never races with us.
+        // start() gets the location the main thread copied from settings.
+        private final Location loc = new Location("gps");
+        // integrated in plain doubles, steps are short enough for the local tangent plane
+        private final Geodesy.Position pos = new Geodesy.Position();
+        protected long last_step = -1; // elapsedRealtimeNanos
+
+        // textview update, throttled to display refresh
+        private final long uiPeriod_ns;
+        private volatile double shownSpeed, shownBearing;
+        private volatile long lastUiUpdate = 0;
+        private volatile boolean uiPending = false;
+        private final Runnable uiUpdater = new Runnable() {
+            @Override
+            public void run() {
+                uiPending = false;
+                lastUiUpdate = SystemClock.elapsedRealtimeNanos();
+                textSpeedTrans.setText(String.format(speedTransString, shownSpeed));
+                textBearing.setText(String.format(speedBearingString, Math.toDegrees(shownBearing)));
+            }
+        };
+
+        public RunningMan(float refreshRate) {
+            uiPeriod_ns = (long) (1e9 / Math.max(1.0f, refreshRate));
+        }
 
-        public RunningMan() {
-            stop();
+        // begin moving from the given location
+        public void start(Location start) {
+            loc.set(start);
+            pos.set(loc.getLatitude(), loc.getLongitude());
+            last_step = -1;
+            updateVelocity(0.0, 0.0);
         }
 
         public void stop() {
             updateVelocity(0.0, 0.0);
+            last_step = -1;
         }
 
         public void updateVelocity(double speed, double bearing) {
             boolean still = (Math.abs(speed) < 0.1);    // < 0.1 m/s, it's ok since noise makes it less artificial later
 
-            long now = System.currentTimeMillis();
+            long now = SystemClock.elapsedRealtimeNanos();
             if (last_step == -1) {
                 last_step = now;
             }
 
-            // here are some leftovers from previous implementation. they are not wrong so let's leave them in
-
             // see how much time elapsed since last updateVelocity call
-            long step_diff = now - last_step; // ms
-            if (step_diff > 1000) {
-                // max. step, avoid jumps
-                step_diff = 1000;
-            }
+            long step_diff = Math.min(now - last_step, MAX_STEP_ns);
 
             // throttle step update
-            if ((step_diff < 5) && !still) {
+            if ((step_diff < MIN_STEP_ns) && !still) {
                 return;
             }
 
             last_step = now;
 
-            // get previous location
-            Location loc = settings.getLocation();
-
             // advance walk
-            double dist = speed * step_diff / 1000.0; // m
+            double dist = speed * step_diff / 1e9; // m
             // max. distance per step
             dist = Math.max(-100.0, dist);
             dist = Math.min(100.0, dist);
 
             // update location
-            loc = LocationHelper.displace(loc, dist, bearing);
+            Geodesy.displaceFast(pos, dist, bearing);
+            loc.setLatitude(pos.latitude);
+            loc.setLongitude(pos.longitude);
             loc.setBearing((float) Math.toDegrees(bearing));
             loc.setSpeed((float) Math.abs(speed)); // only pos. speed? maybe.
-            loc.setTime(now);
+            loc.setTime(System.currentTimeMillis());
             settings.sendLocation(loc);
 
             if (DEBUG) {
                 Log.d(TAG, "tdiff " + step_diff + " brng " + bearing + " dist " + dist + " time " + now + " new location: " + loc);
             }
 
-            // update textview
-            textSpeedTrans.setText(String.format(speedTransString, speed));
-            textBearing.setText(String.format(speedBearingString, Math.toDegrees(bearing)));
+            showVelocity(speed, bearing, now);
+        }
+
+        private void showVelocity(double speed, double bearing, long now) {
+            shownSpeed = speed;
+            shownBearing = bearing;
+
+            // a pending update picks up the newest values when it runs
+            if (!uiPending) {
+                uiPending = true;
+                long wait_ms = Math.max(0, (uiPeriod_ns - (now - lastUiUpdate)) / 1000000);
+                uiHandler.postDelayed(uiUpdater, wait_ms);
+            }
         }
     }
 
     // process joystick events
     public class MyJsListener implements JoystickListener {
+        // simulation period
+        static final long UPDATER_PERIOD_ms = 20; // 50 Hz
+
         protected RunningMan runman;
 
-        // current joystick state
-        boolean joystick_touched = false;
-        double joystick_phi = 0;
-        double joystick_r = 0;
+        // current joystick state, written by the UI thread
+        volatile boolean joystick_touched = false;
+        volatile double joystick_phi = 0;
+        volatile double joystick_r = 0;
 
-        // updater
-        private long UPDATER_PERIOD_ms;
-        private Handler handler = new Handler(Looper.getMainLooper());
+        // updater, runs on the simulation thread
+        private long nextUpdate; // uptimeMillis
         Runnable updater = new Runnable() {
             @Override
             public void run() {
                 update();
             }
         };
+        // joystick pressed, start is the current location copied on the main thread
+        private void down(Location start) {
+            // joystick takes over from track replay
+            trackPlayer.stop();
 
-        public MyJsListener() {
-            runman = new RunningMan();
+            // trigger a location update with zero speed
+            runman.start(start);
+
+            nextUpdate = SystemClock.uptimeMillis();
+            startUpdater();
+        }
+        Runnable up = new Runnable() {
+            @Override
+            public void run() {
+                stopUpdater();
+
+                // stop movement
+                runman.stop();
+            }
+        };
 
-            // use update rate that's in sync with screen refresh
+        public MyJsListener() {
+            // overlay text is updated at most once per frame
             Display display = ((WindowManager) getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
             float refreshRate = display.getRefreshRate();
+            runman = new RunningMan(refreshRate);
 
-            // updater period must be an integer, so search for a good one
-            if ((refreshRate % 60.0f) < 0.1) {          // 60 Hz
-                UPDATER_PERIOD_ms = 50; // 20 Hz
-            } else if ((refreshRate % 50.0f) < 0.1) {   // 50 Hz
-                UPDATER_PERIOD_ms = 20; // 50 Hz
-            } else {
-                UPDATER_PERIOD_ms = 20;
-            }
-            Log.d(TAG, "update rate " + refreshRate + " -> updater " + UPDATER_PERIOD_ms);
+            Log.d(TAG, "update rate " + refreshRate + ", updater " + UPDATER_PERIOD_ms);
         }
 
         @Override
         public void onDown() {
-            // trigger a location update with zero speed
-            runman.stop();
-
             joystick_touched = true;
             joystick_phi = 0;
             joystick_r = 0;
 
-            startUpdater();
+            // settings' location is written on this thread, copy it here
+            final Location start = new Location(settings.getLocation());
+            simHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    down(start);
+                }
+            });
         }
 
         @Override
@@ -244,19 +367,24 @@ public class JoystickService extends Service {
 
         @Override
         public void onUp() {
-            // stop movement
-            runman.stop();
             joystick_touched = false;
 
-            stopUpdater();
+            simHandler.post(up);
         }
 
+        // fixed rate, independent of how long a step took
         public void startUpdater() {
-            handler.postDelayed(updater, UPDATER_PERIOD_ms);
+            nextUpdate += UPDATER_PERIOD_ms;
+            long now = SystemClock.uptimeMillis();
+            if (nextUpdate <= now) {
+                // fell behind, don't try to catch up
+                nextUpdate = now + UPDATER_PERIOD_ms;
+            }
+            simHandler.postAtTime(updater, nextUpdate);
         }
 
         public void stopUpdater() {
-            handler.removeCallbacks(updater);
+            simHandler.removeCallbacks(updater);
         }
 
         public void update() {
@@ -1,10 +1,10 @@
 package com.github.spezifisch.threestepsahead;
 
 import android.Manifest;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.graphics.drawable.Drawable;
 import android.location.Location;
 import android.net.Uri;
 import android.os.Build;
@@ -17,12 +17,14 @@ import android.support.v4.content.ContextCompat;
 import android.support.v4.view.GravityCompat;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.ActionBarDrawerToggle;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -30,10 +32,8 @@ import android.widget.Toast;
 import org.osmdroid.api.IMapController;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
 import org.osmdroid.util.GeoPoint;
-import org.osmdroid.views.overlay.ItemizedIconOverlay;
-import org.osmdroid.views.overlay.OverlayItem;
 
-import java.util.LinkedList;
+import java.io.IOException;
 
 public class MainActivity extends AppCompatActivity
         implements IPC.LocationUpdateListener, IPC.StateUpdateListener,
@@ -51,15 +51,10 @@ public class MainActivity extends AppCompatActivity
     private MapViewLoc map;
     private IMapController mapController;
 
-    private ItemizedIconOverlay markersOverlay;
-    private OverlayItem markerOverlay;
-    private Drawable myMarker;
-
     // IPC to JoystickService
     private SettingsStorage settingsStorage;
     private IPC.SettingsClient settings = new IPC.SettingsClient();
     private IPC.Client serviceClient = new IPC.Client(settings);
-    private long lastLocationUpdate = 0;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -70,7 +65,8 @@ public class MainActivity extends AppCompatActivity
         settingsStorage = SettingsStorage.getSettingsStorage(getApplicationContext());
         settings.setSettingsStorage(settingsStorage);
 
-        // start IPC
+        // start IPC, the map can't show positions faster than the display refreshes
+        serviceClient.setMaxUpdateRate(Math.round(getWindowManager().getDefaultDisplay().getRefreshRate()));
         serviceClient.connect(getApplicationContext());
         settings.setTagSuffix("MainActivity");
         settings.setClient(serviceClient);
@@ -112,7 +108,7 @@ public class MainActivity extends AppCompatActivity
 
         // OSM map
         map = (MapViewLoc) findViewById(R.id.map);
-        map.setTileSource(TileSourceFactory.MAPNIK);
+        map.enableOfflineTiles(TileSourceFactory.MAPNIK);
         //map.setBuiltInZoomControls(true); // interferes with Snackbar
         map.setMultiTouchControls(true);
 
@@ -120,11 +116,9 @@ public class MainActivity extends AppCompatActivity
         mapController = map.getController();
         mapController.setZoom(17);
 
-        // set marker
-        myMarker = ContextCompat.getDrawable(this, R.drawable.pointer);
-        markersOverlay = new ItemizedIconOverlay<>(new LinkedList<OverlayItem>(),
-                myMarker, null, getApplicationContext());
-        map.getOverlays().add(markersOverlay);
+        // set marker and travelled path
+        map.showTrack();
+        map.showPosition(ContextCompat.getDrawable(this, R.drawable.pointer));
 
         // marker location from settings
         Location loc = settings.getLocation();
@@ -380,8 +374,7 @@ public class MainActivity extends AppCompatActivity
                 startActivity(intent);
             }
         } else if (id == R.id.nav_manage) {
-            Snackbar.make(findViewById(R.id.map), "Backend is more important right now ;)", Snackbar.LENGTH_SHORT)
-                    .setAction("Action", null).show();
+            editHookedApps();
         }
 
         DrawerLayout drawer = (DrawerLayout) findViewById(R.id.drawer_layout);
@@ -389,58 +382,53 @@ public class MainActivity extends AppCompatActivity
         return true;
     }
 
+    // one app per line: package name followed by any of gps, fused, status, sensors
+    private void editHookedApps() {
+        final EditText text = new EditText(this);
+        text.setText(settingsStorage.getHookedApps());
+        text.setHorizontallyScrolling(true);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Hooked apps")
+                .setView(text)
+                .setNegativeButton(android.R.string.cancel, null)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String t;
+                        try {
+                            settingsStorage.saveHookedApps(text.getText().toString());
+                            t = "Saved, reboot to apply";
+                        } catch (IOException e) {
+                            t = "Failed saving hooked apps";
+                        }
+                        Snackbar.make(findViewById(R.id.map), t, Snackbar.LENGTH_LONG)
+                                .setAction("Action", null).show();
+                    }
+                })
+                .show();
+    }
+
     @Override
     public void OnLocationUpdate(Location loc) {
         if (DEBUG) {
             Log.d(TAG, "got location update:" + loc);
         }
 
+        // JoystickService journals every location, no need to save it here
         updateMarker(loc, true);
-
-        // throttle settings updates
-        long now = System.currentTimeMillis();
-        long elapsed = now - lastLocationUpdate;
-        lastLocationUpdate = now;
-
-        if (elapsed > 60 * 1000) {
-            settings.saveSettings();
-        }
+        map.prefetch(loc);
     }
 
     @Override
     public void OnStateUpdate() {
         updateState(settings.isEnabled());
 
-        // always update
-        lastLocationUpdate = System.currentTimeMillis();
         settings.saveSettings();
     }
 
-    private void updateMarker(GeoPoint pt, boolean center) {
-        final String markerTitle = "Fake Location", markerDescription = "You seem to be here.";
-
-        // add marker for new location
-        markerOverlay = new OverlayItem(markerTitle, markerDescription, pt);
-        markerOverlay.setMarker(myMarker);
-
-        // replace marker. there's no method for updating it directly
-        markersOverlay.removeAllItems();
-        markersOverlay.addItem(markerOverlay);
-
-        // pan map?
-        if (center) {
-            mapController.setCenter(pt);
-        } else {
-            // redraw map to show new marker
-            findViewById(R.id.map).invalidate();
-        }
-    }
-
     private void updateMarker(Location loc, boolean center) {
-        int lat = (int) (loc.getLatitude() * 1E6);
-        int lng = (int) (loc.getLongitude() * 1E6);
-        GeoPoint point = new GeoPoint(lat, lng);
-        updateMarker(point, center);
+        map.setPosition(loc.getLatitude(), loc.getLongitude(), center);
     }
 
     private boolean updateState(boolean enabled) {
@@ -2,11 +2,14 @@ package com.github.spezifisch.threestepsahead;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
 import android.location.Criteria;
 import android.location.Location;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
 import org.osmdroid.views.MapView;
 import org.osmdroid.views.Projection;
 import org.osmdroid.views.overlay.Overlay;
@@ -16,11 +19,90 @@ public class MapViewLoc extends MapView {
 
     private Overlay tapOverlay;
     private OnTapListener onTapListener;
+    private OfflineTiles offlineTiles;
+
+    // fake position, redrawn at most once per frame
+    private PositionOverlay positionOverlay;
+    private TrackOverlay trackOverlay;
+    private boolean frameScheduled = false;
+    private boolean centerPending = false;
+
+    private final Choreographer.FrameCallback positionFrame = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled = false;
+            if (centerPending) {
+                centerPending = false;
+                getController().setCenter(positionOverlay.getPosition());
+            } else {
+                invalidate();
+            }
+        }
+    };
 
     public MapViewLoc(Context context, AttributeSet attrs) {
         super(context, attrs);
     }
 
+    // path of the position, add before showPosition() to draw it below the marker
+    public void showTrack() {
+        trackOverlay = new TrackOverlay(getContext());
+        getOverlays().add(trackOverlay);
+    }
+
+    public void showPosition(Drawable marker) {
+        positionOverlay = new PositionOverlay(getContext(), marker);
+        getOverlays().add(positionOverlay);
+    }
+
+    /**
+     * Move the position marker (UI thread). Any number of calls between two frames cost one redraw.
+     * @param center pan the map to the position
+     */
+    public void setPosition(double lat, double lon, boolean center) {
+        if (positionOverlay == null) {
+            return;
+        }
+        positionOverlay.setPosition(lat, lon);
+        if (trackOverlay != null) {
+            trackOverlay.add(lat, lon);
+        }
+        centerPending |= center;
+
+        if (!frameScheduled) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(positionFrame);
+        }
+    }
+
+    // draw from local tiles, downloading missing ones from source in the background
+    public void enableOfflineTiles(OnlineTileSourceBase source) {
+        setTileSource(source);
+        offlineTiles = new OfflineTiles(getContext(), source, this);
+        setTileProvider(offlineTiles.createProvider(getContext()));
+    }
+
+    // warm tiles around the fake location and ahead of it
+    public void prefetch(Location loc) {
+        if (offlineTiles != null) {
+            offlineTiles.prefetch(loc.getLatitude(), loc.getLongitude(), loc.getBearing(),
+                    loc.getSpeed() > 0.1f, getZoomLevel());
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (frameScheduled) {
+            Choreographer.getInstance().removeFrameCallback(positionFrame);
+            frameScheduled = false;
+        }
+        if (offlineTiles != null) {
+            offlineTiles.close();
+            offlineTiles = null;
+        }
+    }
+
     @Override
     protected void dispatchDraw(Canvas c) {
         // compatibility with layout preview
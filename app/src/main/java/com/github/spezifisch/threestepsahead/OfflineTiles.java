@@ -0,0 +1,385 @@
+package com.github.spezifisch.threestepsahead;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+
+import com.github.spezifisch.threestepsahead.utils.TileStore;
+import com.github.spezifisch.threestepsahead.utils.Tiles;
+
+import org.osmdroid.tileprovider.MapTile;
+import org.osmdroid.tileprovider.MapTileProviderArray;
+import org.osmdroid.tileprovider.MapTileProviderBase;
+import org.osmdroid.tileprovider.MapTileRequestState;
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Map tiles for MapViewLoc without touching the network or opening files while drawing.
+ *
+ * Tiles are read from a local MBTiles file (TileStore) through an LRU of decoded bitmaps sized
+ * by the device's memory class. Missing tiles are downloaded on a background thread and added to
+ * the file if it's writable, the map is redrawn when they arrive. Without a usable file tiles are
+ * only kept in memory. prefetch() warms the tiles around the fake position and ahead along its
+ * heading, which also follows a replayed track.
+ *
+ * Downloads follow the OSM tile usage policy: tiles are kept until they expire as the server says
+ * (Cache-Control, Expires, else DEFAULT_EXPIRES_ms) and expired ones are shown until they were
+ * downloaded again, there's no prefetching above MAX_PREFETCH_ZOOM and requests identify the app.
+ */
+public class OfflineTiles {
+    static final String TAG = "OfflineTiles";
+    static final boolean DEBUG = false;
+    static final String FILENAME = "tiles.mbtiles";
+
+    static final int PREFETCH_RADIUS = 2;   // tiles around the position
+    static final int PREFETCH_AHEAD = 4;    // tiles along the heading
+    static final int MAX_PREFETCH_ZOOM = 16;
+    static final int MAX_QUEUE = 256;
+    static final int TIMEOUT_ms = 10000;
+    static final long DEFAULT_EXPIRES_ms = 7L * 24 * 3600 * 1000;
+    static final String USER_AGENT = "ThreeStepsAhead/" + BuildConfig.VERSION_NAME +
+            " (+https://github.com/spezifisch/ThreeStepsAhead)";
+
+    private final OnlineTileSourceBase source;
+    private final TileStore store; // null if the file can't be opened
+    private final LruCache<Long, Bitmap> cache;
+    private final Resources resources;
+    private final ConnectivityManager connectivity;
+    private final View view;
+    private final BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+
+    // tiles to load into the cache, newest requests are served last
+    private final LinkedHashSet<Long> queue = new LinkedHashSet<>();
+    private final HandlerThread thread;
+    private final Handler handler;
+    private long downloadExpires; // of the last download(), background thread
+
+    // last prefetch, to skip it while staying on the same tile
+    private long lastCenter = -1;
+    private int lastDirection = -1;
+
+    /**
+     * @param view invalidated when missing tiles arrived
+     */
+    public OfflineTiles(Context context, OnlineTileSourceBase source, View view) {
+        this.source = source;
+        this.view = view;
+        this.resources = context.getResources();
+        this.connectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        File dir = context.getExternalFilesDir(null);
+        if (dir == null) {
+            dir = context.getFilesDir();
+        }
+        store = TileStore.open(new File(dir, FILENAME));
+
+        // an eighth of what the app may use
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cacheBytes = am.getMemoryClass() * 1024 * 1024 / 8;
+        cache = new LruCache<Long, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(Long key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        decodeOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+
+        thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        if (DEBUG) {
+            Log.d(TAG, "tile cache " + cacheBytes / 1024 + " KiB");
+        }
+    }
+
+    /**
+     * Tile provider for MapView.setTileProvider().
+     */
+    public MapTileProviderBase createProvider(Context context) {
+        return new MapTileProviderArray(source, new SimpleRegisterReceiver(context),
+                new MapTileModuleProviderBase[]{new Module()});
+    }
+
+    /**
+     * Warm the cache around a position (UI thread). Cheap while on the same tile.
+     * Does nothing above MAX_PREFETCH_ZOOM.
+     * @param bearing deg, only used if moving
+     */
+    public void prefetch(double lat, double lon, float bearing, boolean moving, int zoom) {
+        if (zoom > MAX_PREFETCH_ZOOM) {
+            return;
+        }
+        final int cx = Tiles.tileX(lon, zoom), cy = Tiles.tileY(lat, zoom);
+        final long center = Tiles.key(zoom, cx, cy);
+        final int direction = moving ? Math.round(bearing / 45.0f) & 7 : -1;
+        if (center == lastCenter && direction == lastDirection) {
+            return;
+        }
+        lastCenter = center;
+        lastDirection = direction;
+
+        final int n = 1 << zoom;
+        for (int dy = -PREFETCH_RADIUS; dy <= PREFETCH_RADIUS; dy++) {
+            for (int dx = -PREFETCH_RADIUS; dx <= PREFETCH_RADIUS; dx++) {
+                int x = cx + dx, y = cy + dy;
+                if (y >= 0 && y < n) {
+                    request(Tiles.key(zoom, (x + n) % n, y));
+                }
+            }
+        }
+
+        if (moving) {
+            // tile y grows southwards
+            double b = Math.toRadians(bearing);
+            double sx = Math.sin(b), sy = -Math.cos(b);
+            for (int k = PREFETCH_RADIUS + 1; k <= PREFETCH_RADIUS + PREFETCH_AHEAD; k++) {
+                int x = cx + (int) Math.round(sx * k), y = cy + (int) Math.round(sy * k);
+                if (y >= 0 && y < n) {
+                    request(Tiles.key(zoom, (x + n) % n, y));
+                }
+            }
+        }
+    }
+
+    public void close() {
+        synchronized (queue) {
+            queue.clear();
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (store != null) {
+                    store.close();
+                }
+            }
+        });
+        thread.quitSafely();
+        cache.evictAll();
+    }
+
+    // tile loader thread of osmdroid: memory, then file. Missing tiles are fetched in the background.
+    Drawable load(int zoom, int x, int y) {
+        final long key = Tiles.key(zoom, x, y);
+        Bitmap bitmap = cache.get(key);
+        if (bitmap == null && store != null) {
+            bitmap = decode(store.get(zoom, x, y));
+            if (bitmap != null) {
+                if (store.isExpired(zoom, x, y, System.currentTimeMillis())) {
+                    request(key); // shown until it's downloaded again
+                } else {
+                    cache.put(key, bitmap);
+                }
+            }
+        }
+        if (bitmap == null) {
+            request(key);
+            return null;
+        }
+        return new BitmapDrawable(resources, bitmap);
+    }
+
+    private void request(long key) {
+        if (cache.get(key) != null) {
+            return;
+        }
+        synchronized (queue) {
+            if (queue.size() >= MAX_QUEUE || !queue.add(key)) {
+                return;
+            }
+            if (queue.size() > 1) {
+                return; // fetcher already scheduled
+            }
+        }
+        handler.post(fetcher);
+    }
+
+    private final Runnable fetcher = new Runnable() {
+        @Override
+        public void run() {
+            boolean loaded = false;
+            while (true) {
+                long key;
+                synchronized (queue) {
+                    Iterator<Long> it = queue.iterator();
+                    if (!it.hasNext()) {
+                        break;
+                    }
+                    key = it.next();
+                    it.remove();
+                }
+                loaded |= fetch(key);
+            }
+            if (loaded) {
+                view.postInvalidate();
+            }
+        }
+    };
+
+    // background thread
+    private boolean fetch(long key) {
+        if (cache.get(key) != null) {
+            return false;
+        }
+        final int zoom = Tiles.keyZoom(key), x = Tiles.keyX(key), y = Tiles.keyY(key);
+
+        byte[] data = (store != null) ? store.get(zoom, x, y) : null;
+        if (data == null || store.isExpired(zoom, x, y, System.currentTimeMillis())) {
+            byte[] fresh = download(zoom, x, y);
+            if (fresh != null) {
+                data = fresh;
+                if (store != null) {
+                    store.put(zoom, x, y, data, downloadExpires);
+                }
+            } else if (data == null) {
+                return false;
+            }
+            // else keep the expired tile
+        }
+
+        Bitmap bitmap = decode(data);
+        if (bitmap == null) {
+            return false;
+        }
+        cache.put(key, bitmap);
+        return true;
+    }
+
+    private Bitmap decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length, decodeOptions);
+    }
+
+    private byte[] download(int zoom, int x, int y) {
+        NetworkInfo network = connectivity.getActiveNetworkInfo();
+        if (network == null || !network.isConnected()) {
+            return null;
+        }
+
+        HttpURLConnection c = null;
+        try {
+            c = (HttpURLConnection) new URL(source.getTileURLString(new MapTile(zoom, x, y))).openConnection();
+            c.setConnectTimeout(TIMEOUT_ms);
+            c.setReadTimeout(TIMEOUT_ms);
+            c.setRequestProperty("User-Agent", USER_AGENT);
+            if (c.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                Log.w(TAG, "tile " + zoom + "/" + x + "/" + y + ": HTTP " + c.getResponseCode());
+                return null;
+            }
+
+            downloadExpires = expires(c, System.currentTimeMillis());
+            InputStream in = c.getInputStream();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            in.close();
+            return out.toByteArray();
+        } catch (IOException e) {
+            Log.w(TAG, "tile " + zoom + "/" + x + "/" + y + ": " + e);
+            return null;
+        } finally {
+            if (c != null) {
+                c.disconnect();
+            }
+        }
+    }
+
+    // expiry time from Cache-Control max-age, else Expires, else the default
+    private static long expires(HttpURLConnection c, long now) {
+        String cacheControl = c.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    return now;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        return now + Long.parseLong(directive.substring(8).trim()) * 1000;
+                    } catch (NumberFormatException e) {
+                        // try Expires
+                    }
+                }
+            }
+        }
+        long expires = c.getExpiration();
+        return (expires > 0) ? expires : now + DEFAULT_EXPIRES_ms;
+    }
+
+    // osmdroid module, never uses the network itself
+    class Module extends MapTileModuleProviderBase {
+        Module() {
+            super(2, 40);
+        }
+
+        @Override
+        protected String getName() {
+            return "Offline Tile Provider";
+        }
+
+        @Override
+        protected String getThreadGroupName() {
+            return "offline";
+        }
+
+        @Override
+        protected Runnable getTileLoader() {
+            return new TileLoader() {
+                @Override
+                public Drawable loadTile(MapTileRequestState state) {
+                    MapTile tile = state.getMapTile();
+                    return load(tile.getZoomLevel(), tile.getX(), tile.getY());
+                }
+            };
+        }
+
+        @Override
+        public boolean getUsesDataConnection() {
+            return false;
+        }
+
+        @Override
+        public int getMinimumZoomLevel() {
+            return source.getMinimumZoomLevel();
+        }
+
+        @Override
+        public int getMaximumZoomLevel() {
+            return source.getMaximumZoomLevel();
+        }
+
+        @Override
+        public void setTileSource(ITileSource tileSource) {
+            // tiles are stored for the source given to OfflineTiles
+        }
+    }
+}
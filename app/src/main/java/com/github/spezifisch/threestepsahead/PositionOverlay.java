@@ -0,0 +1,50 @@
+package com.github.spezifisch.threestepsahead;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Point;
+import android.graphics.drawable.Drawable;
+
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.Overlay;
+import org.osmdroid.util.GeoPoint;
+
+/**
+ * Marker for the fake position. The position is mutable and drawing reuses the same point
+ * objects, so moving the marker allocates nothing. Owned by MapViewLoc, UI thread only.
+ */
+public class PositionOverlay extends Overlay {
+    private final Drawable marker;
+    private final GeoPoint position = new GeoPoint(0.0, 0.0);
+    private final Point pixel = new Point();
+    private boolean valid = false;
+
+    public PositionOverlay(Context context, Drawable marker) {
+        super(context);
+        this.marker = marker;
+    }
+
+    public void setPosition(double lat, double lon) {
+        position.setLatitude(lat);
+        position.setLongitude(lon);
+        valid = true;
+    }
+
+    public GeoPoint getPosition() {
+        return position;
+    }
+
+    @Override
+    protected void draw(Canvas c, MapView osmv, boolean shadow) {
+        if (shadow || !valid) {
+            return;
+        }
+
+        osmv.getProjection().toPixels(position, pixel);
+
+        // tip of the pointer at the bottom center, like the marker of ItemizedIconOverlay
+        final int w = marker.getIntrinsicWidth(), h = marker.getIntrinsicHeight();
+        marker.setBounds(pixel.x - w / 2, pixel.y - h, pixel.x - w / 2 + w, pixel.y);
+        marker.draw(c);
+    }
+}
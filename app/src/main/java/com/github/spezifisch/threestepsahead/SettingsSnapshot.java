@@ -0,0 +1,261 @@
+package com.github.spezifisch.threestepsahead;
+
+import com.github.spezifisch.threestepsahead.utils.Fences;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-layout binary copy of the settings next to the SharedPreferences file. The app writes it,
+ * hooked apps map it read-only instead of parsing the preferences XML with XSharedPreferences.
+ *
+ * Like SharedLocation it is guarded by a seqlock, the sequence counter doubles as generation:
+ * reload() only reads the counter unless the app wrote something new.
+ * The file is updated in place and never replaced, so existing mappings stay valid.
+ */
+public class SettingsSnapshot {
+    static final String SUFFIX = ".snapshot";
+
+    // record layout
+    static final int MAGIC = 0x54535331; // "TSS1"
+    static final int OFF_MAGIC = 0;
+    static final int OFF_SEQ = 4;
+    static final int OFF_LATITUDE = 8;
+    static final int OFF_LONGITUDE = 16;
+    static final int OFF_ALTITUDE = 24;
+    static final int OFF_BEARING = 32;
+    static final int OFF_SPEED = 36;
+    static final int OFF_ACCURACY = 40;
+    static final int OFF_FLAGS = 44;
+    static final int SIZE = 64;
+
+    // flags
+    public static final int FLAG_ENABLED = 1;
+    public static final int FLAG_JOYSTICK = 2;
+    public static final int FLAG_HAS_LOCATION = 4;
+
+    static final int MAX_READ_TRIES = 8;
+
+    // one writer per process, MainActivity and JoystickService share it
+    private static SettingsSnapshot writer;
+
+    private final MappedByteBuffer buffer;
+    private final boolean writable;
+    private boolean isNew = false;
+    private int seq;
+
+    // last consistent copy
+    private double latitude, longitude, altitude;
+    private float bearing, speed, accuracy;
+    private int flags;
+
+    private SettingsSnapshot(MappedByteBuffer buffer, boolean writable) {
+        this.buffer = buffer;
+        this.buffer.order(ByteOrder.nativeOrder());
+        this.writable = writable;
+    }
+
+    public static File getFile(File prefsDir, String name) {
+        return new File(prefsDir, name + SUFFIX);
+    }
+
+    /**
+     * Create or reuse the snapshot file (for the app).
+     * If there was no valid snapshot yet, or the last write was interrupted, isNew() is true and
+     * the caller should fill it.
+     */
+    public static synchronized SettingsSnapshot getWriter(File file) throws IOException {
+        if (writer != null) {
+            return writer;
+        }
+
+        file.getParentFile().mkdirs();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(SIZE);
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+
+            SettingsSnapshot ss = new SettingsSnapshot(buf, true);
+            if (buf.getInt(OFF_MAGIC) == MAGIC) {
+                // nobody else writes, load last values as they are, then continue sequence,
+                // but never stay odd. Odd means a writer died halfway, the values may be mixed.
+                int seq = buf.getInt(OFF_SEQ);
+                ss.load();
+                ss.isNew = (seq & 1) != 0;
+                ss.seq = (seq + 1) & ~1;
+                buf.putInt(OFF_SEQ, ss.seq);
+            } else {
+                buf.putInt(OFF_SEQ, 0);
+                buf.putInt(OFF_MAGIC, MAGIC);
+                ss.isNew = true;
+            }
+            //noinspection ResultOfMethodCallIgnored
+            file.setReadable(true, false);
+
+            writer = ss;
+            return ss;
+        } finally {
+            // mapping stays valid after closing
+            raf.close();
+        }
+    }
+
+    /**
+     * Map the snapshot read-only (for hooked apps).
+     * @return null if it doesn't exist (yet) or isn't readable
+     */
+    public static SettingsSnapshot openReader(File file) {
+        if (!file.canRead() || file.length() < SIZE) {
+            return null;
+        }
+
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(file);
+            MappedByteBuffer buf = fis.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+            if (buf.order(ByteOrder.nativeOrder()).getInt(OFF_MAGIC) != MAGIC) {
+                return null;
+            }
+            return new SettingsSnapshot(buf, false);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    // mapping is done
+                }
+            }
+        }
+    }
+
+    public boolean isNew() {
+        return isNew;
+    }
+
+    /**
+     * Pick up changes of the writer. Costs a single read of the sequence counter if there are none.
+     * @return true if something changed
+     */
+    public boolean reload() {
+        for (int i = 0; i < MAX_READ_TRIES; i++) {
+            int s1 = buffer.getInt(OFF_SEQ);
+            if (s1 == seq) {
+                return false;
+            }
+            if ((s1 & 1) != 0) {
+                continue; // writer busy
+            }
+            Fences.loadFence();
+
+            double lat = buffer.getDouble(OFF_LATITUDE);
+            double lon = buffer.getDouble(OFF_LONGITUDE);
+            double alt = buffer.getDouble(OFF_ALTITUDE);
+            float b = buffer.getFloat(OFF_BEARING);
+            float s = buffer.getFloat(OFF_SPEED);
+            float a = buffer.getFloat(OFF_ACCURACY);
+            int f = buffer.getInt(OFF_FLAGS);
+
+            Fences.loadFence();
+            if (buffer.getInt(OFF_SEQ) != s1) {
+                continue; // torn read
+            }
+
+            seq = s1;
+            latitude = lat;
+            longitude = lon;
+            altitude = alt;
+            bearing = b;
+            speed = s;
+            accuracy = a;
+            flags = f;
+            return true;
+        }
+        return false;
+    }
+
+    // fields without seqlock, for the writer
+    private void load() {
+        latitude = buffer.getDouble(OFF_LATITUDE);
+        longitude = buffer.getDouble(OFF_LONGITUDE);
+        altitude = buffer.getDouble(OFF_ALTITUDE);
+        bearing = buffer.getFloat(OFF_BEARING);
+        speed = buffer.getFloat(OFF_SPEED);
+        accuracy = buffer.getFloat(OFF_ACCURACY);
+        flags = buffer.getInt(OFF_FLAGS);
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public double getAltitude() {
+        return altitude;
+    }
+
+    public float getBearing() {
+        return bearing;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    public boolean hasFlag(int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public synchronized void writeLocation(double lat, double lon, double alt, float b, float s, float a) {
+        latitude = lat;
+        longitude = lon;
+        altitude = alt;
+        bearing = b;
+        speed = s;
+        accuracy = a;
+        flags |= FLAG_HAS_LOCATION;
+        publish();
+    }
+
+    public synchronized void writeFlag(int flag, boolean state) {
+        if (state) {
+            flags |= flag;
+        } else {
+            flags &= ~flag;
+        }
+        publish();
+    }
+
+    private void publish() {
+        if (!writable) {
+            return;
+        }
+
+        buffer.putInt(OFF_SEQ, ++seq); // odd: write in progress
+        Fences.storeFence();
+
+        buffer.putDouble(OFF_LATITUDE, latitude);
+        buffer.putDouble(OFF_LONGITUDE, longitude);
+        buffer.putDouble(OFF_ALTITUDE, altitude);
+        buffer.putFloat(OFF_BEARING, bearing);
+        buffer.putFloat(OFF_SPEED, speed);
+        buffer.putFloat(OFF_ACCURACY, accuracy);
+        buffer.putInt(OFF_FLAGS, flags);
+
+        Fences.storeFence();
+        buffer.putInt(OFF_SEQ, ++seq); // even: done
+    }
+}
@@ -22,6 +22,13 @@ import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.location.Location;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import de.robv.android.xposed.XSharedPreferences;
 import de.robv.android.xposed.XposedBridge;
@@ -29,6 +36,7 @@ import de.robv.android.xposed.XposedBridge;
 
 public class SettingsStorage {
     static private final String THIS_APP = "com.github.spezifisch.threestepsahead", SETTINGS = "gps";
+    static private final String TAG = "SettingsStorage";
 
     /** to be overwritten by Xposed init hook */
     public static boolean xposed_loaded = false;
@@ -40,6 +48,15 @@ public class SettingsStorage {
     private Location cached_location = new Location("gps");
     private static boolean cached_state = true;
 
+    /** Binary copy of the settings, preferred over XSharedPreferences in hooks. */
+    private SettingsSnapshot snapshot = null;
+    private File snapshotFile = null;
+    private long snapshotRetry = 0;
+    static private final long SNAPSHOT_RETRY_MS = 5000;
+
+    /** Compiled AppTable, read by initZygote. */
+    private File appTableFile = null;
+
     /** Factories. */
     public static SettingsStorage getSettingsStorage() {
         return new SettingsStorage(SETTINGS);
@@ -58,6 +75,10 @@ public class SettingsStorage {
         try {
             xSharedPreferences = new XSharedPreferences(THIS_APP, name);
             xSharedPreferences.makeWorldReadable();
+
+            snapshotFile = SettingsSnapshot.getFile(xSharedPreferences.getFile().getParentFile(), name);
+            appTableFile = AppTable.getFile(xSharedPreferences.getFile().getParentFile(), name);
+            openSnapshot();
         } catch (Throwable e) {
             XposedBridge.log(e);
         }
@@ -72,6 +93,52 @@ public class SettingsStorage {
     public SettingsStorage(Context context, String name) {
         mContext = context;
         sharedPreferences = mContext.getSharedPreferences(name, Context.MODE_WORLD_READABLE);
+
+        // same directory as the preferences, so it's readable wherever they are
+        File prefsDir = new File(mContext.getFilesDir().getParentFile(), "shared_prefs");
+        try {
+            snapshot = SettingsSnapshot.getWriter(SettingsSnapshot.getFile(prefsDir, name));
+            if (snapshot.isNew()) {
+                // first run with snapshot or interrupted write, copy preferences
+                snapshot.writeFlag(SettingsSnapshot.FLAG_ENABLED, sharedPreferences.getBoolean("enabled", true));
+                snapshot.writeFlag(SettingsSnapshot.FLAG_JOYSTICK, sharedPreferences.getBoolean("show_joystick", true));
+                if (sharedPreferences.contains("latitude")) {
+                    snapshot.writeLocation(sharedPreferences.getFloat("latitude", 0),
+                            sharedPreferences.getFloat("longitude", 0),
+                            sharedPreferences.getFloat("altitude", 0),
+                            sharedPreferences.getFloat("bearing", 0),
+                            sharedPreferences.getFloat("speed", 0),
+                            sharedPreferences.getFloat("accuracy", 0));
+                }
+            }
+        } catch (IOException e) {
+            snapshot = null;
+        }
+
+        appTableFile = AppTable.getFile(prefsDir, name);
+        if (!appTableFile.exists()) {
+            try {
+                saveHookedApps(getHookedApps());
+            } catch (IOException e) {
+                Log.e(TAG, "Can't compile app table: " + e);
+            }
+        }
+    }
+
+    // hooks: map the snapshot, retried now and then since the app may not have written it yet
+    private boolean openSnapshot() {
+        if (snapshot == null && snapshotFile != null) {
+            long now = SystemClock.uptimeMillis();
+            if (snapshotRetry == 0 || now - snapshotRetry > SNAPSHOT_RETRY_MS) {
+                snapshotRetry = now;
+                snapshot = SettingsSnapshot.openReader(snapshotFile);
+            }
+        }
+        if (snapshot != null) {
+            snapshot.reload();
+            return true;
+        }
+        return false;
     }
 
     /** Public methods */
@@ -102,6 +169,10 @@ public class SettingsStorage {
             throw new Throwable("Readonly or unavailable");
         }
         sharedPreferences.edit().putBoolean(name, value).apply();
+
+        if (snapshot != null && name.equals("show_joystick")) {
+            snapshot.writeFlag(SettingsSnapshot.FLAG_JOYSTICK, value);
+        }
     }
     /**
      * Used to add or change 'name' in the preference file.
@@ -188,6 +259,9 @@ public class SettingsStorage {
      * Used internally to reload the shared prefs file.
      */
     public void reload() {
+        if (openSnapshot()) {
+            return;
+        }
         if (xSharedPreferences != null) {
             xSharedPreferences.reload();
         }
@@ -196,6 +270,18 @@ public class SettingsStorage {
     public Location getLocation() {
         boolean ok;
         Location loc = new Location("gps");
+
+        if (openSnapshot() && snapshot.hasFlag(SettingsSnapshot.FLAG_HAS_LOCATION)) {
+            loc.setLatitude(snapshot.getLatitude());
+            loc.setLongitude(snapshot.getLongitude());
+            loc.setAltitude(snapshot.getAltitude());
+            loc.setSpeed(snapshot.getSpeed());
+            loc.setAccuracy(snapshot.getAccuracy());
+            loc.setBearing(snapshot.getBearing());
+            cached_location.set(loc);
+            return loc;
+        }
+
         try {
             loc.setLatitude(get("latitude", 0));
             loc.setLongitude(get("longitude", 0));
@@ -224,11 +310,17 @@ public class SettingsStorage {
     }
 
     public boolean isEnabled() {
+        if (openSnapshot()) {
+            return snapshot.hasFlag(SettingsSnapshot.FLAG_ENABLED);
+        }
         cached_state = safeGet("start", cached_state);
         return cached_state;
     }
 
     public boolean isJoystickEnabled() {
+        if (openSnapshot()) {
+            return snapshot.hasFlag(SettingsSnapshot.FLAG_JOYSTICK);
+        }
         return safeGet("show_joystick", true);
     }
 
@@ -241,11 +333,61 @@ public class SettingsStorage {
         prefEditor.putFloat("accuracy", loc.getAccuracy());
         prefEditor.putFloat("bearing", loc.getBearing());
         prefEditor.apply();
+
+        if (snapshot != null) {
+            snapshot.writeLocation(loc.getLatitude(), loc.getLongitude(), loc.getAltitude(),
+                    loc.getBearing(), loc.getSpeed(), loc.getAccuracy());
+        }
+    }
+
+    /**
+     * Update only the location in the snapshot, for the service while it runs. The preferences
+     * are written by the activity on state changes and when it's destroyed.
+     */
+    public void saveSnapshotLocation(Location loc) {
+        if (snapshot != null) {
+            snapshot.writeLocation(loc.getLatitude(), loc.getLongitude(), loc.getAltitude(),
+                    loc.getBearing(), loc.getSpeed(), loc.getAccuracy());
+        }
+    }
+
+    /**
+     * Text form of the AppTable (app only).
+     */
+    public String getHookedApps() {
+        return sharedPreferences.getString("hooked_apps", AppTable.DEFAULT);
+    }
+
+    /**
+     * Store the text form and compile it for the hooks. Takes effect after a reboot.
+     */
+    public void saveHookedApps(String text) throws IOException {
+        Map<String, Integer> apps = AppTable.parse(text);
+        sharedPreferences.edit().putString("hooked_apps", AppTable.format(apps)).apply();
+        AppTable.write(appTableFile, apps);
+    }
+
+    /**
+     * Compiled AppTable for the hooks, the default one if the app didn't write it yet.
+     */
+    public HashMap<String, Integer> loadAppTable() {
+        HashMap<String, Integer> apps = null;
+        if (appTableFile != null) {
+            apps = AppTable.read(appTableFile);
+        }
+        if (apps == null) {
+            apps = new HashMap<>(AppTable.parse(AppTable.DEFAULT));
+        }
+        return apps;
     }
 
     public void saveState(boolean start) {
         SharedPreferences.Editor prefEditor = sharedPreferences.edit();
         prefEditor.putBoolean("enabled", start);
         prefEditor.apply();
+
+        if (snapshot != null) {
+            snapshot.writeFlag(SettingsSnapshot.FLAG_ENABLED, start);
+        }
     }
 }
\ No newline at end of file
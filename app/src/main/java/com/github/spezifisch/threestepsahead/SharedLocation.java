@@ -0,0 +1,182 @@
+package com.github.spezifisch.threestepsahead;
+
+import android.location.Location;
+import android.os.ParcelFileDescriptor;
+
+import com.github.spezifisch.threestepsahead.utils.Fences;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed-layout location record in a memory-mapped file, shared between JoystickService (writer)
+ * and the hooked apps (readers). The file descriptor is handed out once over the IPC.Client bind,
+ * after that reading the current fake location needs no Binder call and no allocation.
+ *
+ * Consistency is ensured by a seqlock: the writer makes the sequence counter odd before and even
+ * after updating the record, readers retry if the counter was odd or changed while reading.
+ * Both sides need real fences around the record, see Fences.
+ */
+public class SharedLocation {
+    static final String FILENAME = "shared_location";
+
+    // record layout
+    static final int MAGIC = 0x54534131; // "TSA1"
+    static final int OFF_MAGIC = 0;
+    static final int OFF_SEQ = 4;
+    static final int OFF_LATITUDE = 8;
+    static final int OFF_LONGITUDE = 16;
+    static final int OFF_ALTITUDE = 24;
+    static final int OFF_TIME = 32;
+    static final int OFF_BEARING = 40;
+    static final int OFF_SPEED = 44;
+    static final int OFF_ACCURACY = 48;
+    static final int SIZE = 64;
+
+    // give up after this many torn reads and keep the old value
+    static final int MAX_READ_TRIES = 8;
+
+    private final MappedByteBuffer buffer;
+    private final File file;
+    private final boolean writable;
+    private int seq;
+
+    private SharedLocation(MappedByteBuffer buffer, File file, boolean writable) {
+        this.buffer = buffer;
+        this.buffer.order(ByteOrder.nativeOrder());
+        this.file = file;
+        this.writable = writable;
+    }
+
+    /**
+     * Create or reuse the record file in the given directory (for the Service).
+     * Reusing the file keeps mappings of previously connected clients valid.
+     */
+    public static SharedLocation createWriter(File dir) throws IOException {
+        File file = new File(dir, FILENAME);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(SIZE);
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+
+            SharedLocation sl = new SharedLocation(buf, file, true);
+            if (buf.getInt(OFF_MAGIC) == MAGIC) {
+                // continue sequence of a previous service instance, but never stay odd
+                sl.seq = (buf.getInt(OFF_SEQ) + 1) & ~1;
+                buf.putInt(OFF_SEQ, sl.seq);
+            } else {
+                buf.putInt(OFF_SEQ, 0);
+                buf.putInt(OFF_MAGIC, MAGIC);
+            }
+            return sl;
+        } finally {
+            // mapping stays valid after closing
+            raf.close();
+        }
+    }
+
+    /**
+     * Map a record received over IPC (for hooked apps). The descriptor can be closed afterwards.
+     */
+    public static SharedLocation openReader(ParcelFileDescriptor pfd) throws IOException {
+        FileInputStream fis = new FileInputStream(pfd.getFileDescriptor());
+        try {
+            MappedByteBuffer buf = fis.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, SIZE);
+            if (buf.order(ByteOrder.nativeOrder()).getInt(OFF_MAGIC) != MAGIC) {
+                throw new IOException("invalid shared location record");
+            }
+            return new SharedLocation(buf, null, false);
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Open a new read-only descriptor for a client. Caller closes it after sending.
+     */
+    public ParcelFileDescriptor openClientDescriptor() throws IOException {
+        if (file == null) {
+            throw new IOException("not the writer");
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Publish a new location. Only one thread may write.
+     */
+    public void write(Location loc) {
+        if (!writable) {
+            return;
+        }
+
+        buffer.putInt(OFF_SEQ, ++seq); // odd: write in progress
+        Fences.storeFence();
+
+        buffer.putDouble(OFF_LATITUDE, loc.getLatitude());
+        buffer.putDouble(OFF_LONGITUDE, loc.getLongitude());
+        buffer.putDouble(OFF_ALTITUDE, loc.getAltitude());
+        buffer.putLong(OFF_TIME, loc.getTime());
+        buffer.putFloat(OFF_BEARING, loc.getBearing());
+        buffer.putFloat(OFF_SPEED, loc.getSpeed());
+        buffer.putFloat(OFF_ACCURACY, loc.getAccuracy());
+
+        Fences.storeFence();
+        buffer.putInt(OFF_SEQ, ++seq); // even: done
+    }
+
+    /**
+     * @return true if the writer published a location we haven't read yet
+     */
+    public boolean hasUpdate() {
+        int s = buffer.getInt(OFF_SEQ);
+        return s != seq && (s & 1) == 0;
+    }
+
+    /**
+     * Copy the latest location into loc if it changed since the last read.
+     * @return true if loc was updated
+     */
+    public boolean read(Location loc) {
+        for (int i = 0; i < MAX_READ_TRIES; i++) {
+            int s1 = buffer.getInt(OFF_SEQ);
+            if (s1 == seq || s1 == 0) {
+                // nothing new (or nothing written yet)
+                return false;
+            }
+            if ((s1 & 1) != 0) {
+                continue; // writer busy
+            }
+            Fences.loadFence();
+
+            double latitude = buffer.getDouble(OFF_LATITUDE);
+            double longitude = buffer.getDouble(OFF_LONGITUDE);
+            double altitude = buffer.getDouble(OFF_ALTITUDE);
+            long time = buffer.getLong(OFF_TIME);
+            float bearing = buffer.getFloat(OFF_BEARING);
+            float speed = buffer.getFloat(OFF_SPEED);
+            float accuracy = buffer.getFloat(OFF_ACCURACY);
+
+            Fences.loadFence();
+            int s2 = buffer.getInt(OFF_SEQ);
+            if (s1 != s2) {
+                continue; // torn read
+            }
+
+            seq = s1;
+            loc.setLatitude(latitude);
+            loc.setLongitude(longitude);
+            loc.setAltitude(altitude);
+            loc.setTime(time);
+            loc.setBearing(bearing);
+            loc.setSpeed(speed);
+            loc.setAccuracy(accuracy);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,334 @@
+package com.github.spezifisch.threestepsahead;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the simulation state (location in double precision and enabled flag).
+ *
+ * record() only encodes into a pending buffer, a background thread writes everything that
+ * piled up within FLUSH_DELAY_ms with a single write and fsync. Records have a fixed size and
+ * a checksum, so after a crash the latest state is the last intact record at the end of the file
+ * and a torn write at the end is simply cut off. When the file gets too long it is compacted
+ * to its last record, written to a temporary file first and renamed over the journal.
+ */
+public class StateJournal {
+    static final String TAG = "StateJournal";
+    static final boolean DEBUG = false;
+    static final String FILENAME = "state.journal";
+
+    // record layout
+    static final int MAGIC = 0x54534a31; // "TSJ1"
+    static final int OFF_MAGIC = 0;
+    static final int OFF_CRC = 4;        // CRC32 of OFF_SEQ..SIZE
+    static final int OFF_SEQ = 8;
+    static final int OFF_LATITUDE = 16;
+    static final int OFF_LONGITUDE = 24;
+    static final int OFF_ALTITUDE = 32;
+    static final int OFF_TIME = 40;
+    static final int OFF_BEARING = 48;
+    static final int OFF_SPEED = 52;
+    static final int OFF_ACCURACY = 56;
+    static final int OFF_FLAGS = 60;
+    static final int SIZE = 64;
+
+    static final int FLAG_ENABLED = 1;
+
+    static final long FLUSH_DELAY_ms = 1000;
+    static final int MAX_PENDING = 64;          // records per batch, then the newest is overwritten
+    static final int COMPACT_RECORDS = 4096;    // 256 KiB
+    static final int MAX_RECOVERY_RECORDS = MAX_PENDING + 1; // a torn batch and the record before
+
+    /**
+     * Recovered state.
+     */
+    public static class State {
+        public long seq;
+        public double latitude, longitude, altitude;
+        public long time;
+        public float bearing, speed, accuracy;
+        public boolean enabled;
+    }
+
+    private final File file;
+    private HandlerThread thread;
+    private Handler handler;
+
+    // guarded by this
+    private ByteBuffer pending = ByteBuffer.allocate(SIZE * MAX_PENDING);
+    private final CRC32 crc = new CRC32();
+    private boolean flushScheduled = false;
+    private long seq;
+
+    // journal thread only
+    private ByteBuffer writing = ByteBuffer.allocate(SIZE * MAX_PENDING);
+    private final byte[] last = new byte[SIZE];
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private long records;
+
+    private final State recovered = new State();
+    private boolean hasRecovered = false;
+
+    StateJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the journal in dir and recover the last state, see getLatest().
+     */
+    public static StateJournal open(File dir) throws IOException {
+        StateJournal j = new StateJournal(new File(dir, FILENAME));
+        j.openFile();
+
+        j.thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        j.thread.start();
+        j.handler = new Handler(j.thread.getLooper());
+        return j;
+    }
+
+    // recovers the last state and positions the file for appending
+    void openFile() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+
+        // ignore a partial record at the end
+        long length = raf.length() / SIZE * SIZE;
+        records = length / SIZE;
+
+        // find the last intact record, only looking at the tail
+        ByteBuffer rec = ByteBuffer.wrap(last);
+        for (int i = 0; i < MAX_RECOVERY_RECORDS && records > 0; i++) {
+            rec.clear();
+            channel.read(rec, (records - 1) * SIZE);
+            if (!rec.hasRemaining() && decode(last, recovered)) {
+                hasRecovered = true;
+                break;
+            }
+            records--;
+        }
+        if (!hasRecovered) {
+            // nothing intact near the end, don't cut off records that weren't looked at
+            records = length / SIZE;
+            if (records > 0) {
+                Log.w(TAG, "no intact record in the last " + MAX_RECOVERY_RECORDS + " records");
+            }
+        }
+
+        if (records * SIZE != raf.length()) {
+            Log.w(TAG, "cutting off " + (raf.length() - records * SIZE) + " bytes of torn records");
+            channel.truncate(records * SIZE);
+            channel.force(false);
+        }
+        channel.position(records * SIZE);
+
+        seq = hasRecovered ? recovered.seq + 1 : 0;
+        if (DEBUG) {
+            Log.d(TAG, "opened " + file + " with " + records + " records");
+        }
+    }
+
+    void closeFile() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * State of the last intact record when the journal was opened.
+     * @return false if there was none
+     */
+    public boolean getLatest(State out) {
+        if (!hasRecovered) {
+            return false;
+        }
+        out.seq = recovered.seq;
+        out.latitude = recovered.latitude;
+        out.longitude = recovered.longitude;
+        out.altitude = recovered.altitude;
+        out.time = recovered.time;
+        out.bearing = recovered.bearing;
+        out.speed = recovered.speed;
+        out.accuracy = recovered.accuracy;
+        out.enabled = recovered.enabled;
+        return true;
+    }
+
+    public void record(Location loc, boolean enabled) {
+        record(loc.getLatitude(), loc.getLongitude(), loc.getAltitude(), loc.getTime(),
+                loc.getBearing(), loc.getSpeed(), loc.getAccuracy(), enabled);
+    }
+
+    /**
+     * Queue a state for writing. Doesn't block on I/O and doesn't allocate.
+     */
+    public synchronized void record(double lat, double lon, double alt, long time,
+                                    float bearing, float speed, float accuracy, boolean enabled) {
+        if (!pending.hasRemaining()) {
+            // writer can't keep up, only the newest state matters
+            pending.position(pending.position() - SIZE);
+        }
+
+        int p = pending.position();
+        encode(pending, p, crc, seq++, lat, lon, alt, time, bearing, speed, accuracy, enabled);
+        pending.position(p + SIZE);
+
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flusher, FLUSH_DELAY_ms);
+        }
+    }
+
+    /**
+     * Write pending records now and stop the journal thread afterwards.
+     */
+    public void close() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                handler.removeCallbacks(flusher);
+                flush();
+                try {
+                    closeFile();
+                } catch (IOException e) {
+                    Log.e(TAG, "close failed: " + e);
+                }
+            }
+        });
+        thread.quitSafely();
+    }
+
+    private final Runnable flusher = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // journal thread
+    private void flush() {
+        synchronized (this) {
+            ByteBuffer tmp = writing;
+            writing = pending;
+            pending = tmp;
+            flushScheduled = false;
+        }
+
+        writing.flip();
+        int count = writing.remaining() / SIZE;
+        if (count == 0) {
+            writing.clear();
+            return;
+        }
+        System.arraycopy(writing.array(), (count - 1) * SIZE, last, 0, SIZE);
+
+        try {
+            while (writing.hasRemaining()) {
+                channel.write(writing);
+            }
+            channel.force(false);
+            records += count;
+        } catch (IOException e) {
+            Log.e(TAG, "write failed: " + e);
+            // drop what made it of the batch, the next one has to start on a record boundary
+            try {
+                channel.truncate(records * SIZE);
+                channel.position(records * SIZE);
+            } catch (IOException e2) {
+                Log.e(TAG, "truncate failed: " + e2);
+            }
+        }
+        writing.clear();
+
+        if (DEBUG) {
+            Log.d(TAG, "flushed " + count + " records, " + records + " total");
+        }
+
+        if (records >= COMPACT_RECORDS) {
+            compact();
+        }
+    }
+
+    // journal thread: replace the journal by its last record
+    private void compact() {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try {
+            RandomAccessFile out = new RandomAccessFile(tmpFile, "rw");
+            try {
+                out.setLength(0);
+                out.write(last);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+
+            raf.close();
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            channel.position(SIZE);
+            records = 1;
+            if (DEBUG) {
+                Log.d(TAG, "compacted");
+            }
+        } catch (IOException e) {
+            // keep appending to the old file
+            Log.e(TAG, "compaction failed: " + e);
+            //noinspection ResultOfMethodCallIgnored
+            tmpFile.delete();
+        }
+    }
+
+    // writes a record at byte offset p of buf
+    static void encode(ByteBuffer buf, int p, CRC32 crc, long seq, double lat, double lon, double alt,
+                       long time, float bearing, float speed, float accuracy, boolean enabled) {
+        buf.putInt(p + OFF_MAGIC, MAGIC);
+        buf.putLong(p + OFF_SEQ, seq);
+        buf.putDouble(p + OFF_LATITUDE, lat);
+        buf.putDouble(p + OFF_LONGITUDE, lon);
+        buf.putDouble(p + OFF_ALTITUDE, alt);
+        buf.putLong(p + OFF_TIME, time);
+        buf.putFloat(p + OFF_BEARING, bearing);
+        buf.putFloat(p + OFF_SPEED, speed);
+        buf.putFloat(p + OFF_ACCURACY, accuracy);
+        buf.putInt(p + OFF_FLAGS, enabled ? FLAG_ENABLED : 0);
+
+        crc.reset();
+        crc.update(buf.array(), p + OFF_SEQ, SIZE - OFF_SEQ);
+        buf.putInt(p + OFF_CRC, (int) crc.getValue());
+    }
+
+    private static boolean decode(byte[] rec, State out) {
+        ByteBuffer buf = ByteBuffer.wrap(rec);
+        if (buf.getInt(OFF_MAGIC) != MAGIC) {
+            return false;
+        }
+        CRC32 c = new CRC32();
+        c.update(rec, OFF_SEQ, SIZE - OFF_SEQ);
+        if (buf.getInt(OFF_CRC) != (int) c.getValue()) {
+            return false;
+        }
+
+        out.seq = buf.getLong(OFF_SEQ);
+        out.latitude = buf.getDouble(OFF_LATITUDE);
+        out.longitude = buf.getDouble(OFF_LONGITUDE);
+        out.altitude = buf.getDouble(OFF_ALTITUDE);
+        out.time = buf.getLong(OFF_TIME);
+        out.bearing = buf.getFloat(OFF_BEARING);
+        out.speed = buf.getFloat(OFF_SPEED);
+        out.accuracy = buf.getFloat(OFF_ACCURACY);
+        out.enabled = (buf.getInt(OFF_FLAGS) & FLAG_ENABLED) != 0;
+        return true;
+    }
+}
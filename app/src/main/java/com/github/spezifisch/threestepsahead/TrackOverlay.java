@@ -0,0 +1,94 @@
+package com.github.spezifisch.threestepsahead;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.support.v4.content.ContextCompat;
+
+import com.github.spezifisch.threestepsahead.utils.Track;
+
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+/**
+ * Travelled path of the fake position. Draws the simplification of the Track for the current
+ * zoom, skipping segments outside the screen and vertices on the same pixel, in batches of
+ * drawLines() without allocating.
+ */
+public class TrackOverlay extends Overlay {
+    static final float WIDTH_dp = 4.0f;
+    static final int BATCH = 512;   // segments per drawLines()
+
+    private final Track track = new Track();
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float[] lines = new float[4 * BATCH];
+    private final Point origin = new Point();
+    private final Point offset = new Point();
+
+    public TrackOverlay(Context context) {
+        super(context);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setColor(ContextCompat.getColor(context, R.color.track));
+        paint.setStrokeWidth(WIDTH_dp * context.getResources().getDisplayMetrics().density);
+    }
+
+    public void add(double lat, double lon) {
+        track.add(lat, lon);
+    }
+
+    @Override
+    protected void draw(Canvas c, MapView osmv, boolean shadow) {
+        if (shadow) {
+            return;
+        }
+
+        final Projection proj = osmv.getProjection();
+        final int zoom = proj.getZoomLevel();
+        final int n = track.beginPath(zoom);
+        if (n < 2) {
+            return;
+        }
+
+        // projected to screen pixels is a shift and an offset
+        final int shift = Math.max(Track.PROJECTED_ZOOM - zoom, 0);
+        origin.set(0, 0);
+        proj.toPixelsFromProjected(origin, offset);
+
+        final Rect screen = proj.getScreenRect();
+        final int margin = (int) paint.getStrokeWidth() + 1;
+        final int left = screen.left - margin, right = screen.right + margin;
+        final int top = screen.top - margin, bottom = screen.bottom + margin;
+
+        int k = 0;
+        int x0 = (track.pathX(0) >> shift) + offset.x;
+        int y0 = (track.pathY(0) >> shift) + offset.y;
+        for (int i = 1; i < n; i++) {
+            final int x1 = (track.pathX(i) >> shift) + offset.x;
+            final int y1 = (track.pathY(i) >> shift) + offset.y;
+            if (x1 == x0 && y1 == y0 && i < n - 1) {
+                continue;
+            }
+
+            if (!(x0 < left && x1 < left || x0 > right && x1 > right ||
+                    y0 < top && y1 < top || y0 > bottom && y1 > bottom)) {
+                lines[k++] = x0;
+                lines[k++] = y0;
+                lines[k++] = x1;
+                lines[k++] = y1;
+                if (k == lines.length) {
+                    c.drawLines(lines, 0, k, paint);
+                    k = 0;
+                }
+            }
+            x0 = x1;
+            y0 = y1;
+        }
+        if (k > 0) {
+            c.drawLines(lines, 0, k, paint);
+        }
+    }
+}
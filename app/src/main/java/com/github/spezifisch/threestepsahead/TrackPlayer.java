@@ -0,0 +1,179 @@
+package com.github.spezifisch.threestepsahead;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.github.spezifisch.threestepsahead.utils.Geodesy;
+import com.github.spezifisch.threestepsahead.utils.TrackFile;
+import com.github.spezifisch.threestepsahead.utils.TrackReader;
+import com.github.spezifisch.threestepsahead.utils.TrackTimes;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a GPX/KML/CSV track through SettingsClient.sendLocation.
+ *
+ * Only the two waypoints around the current position are kept, the file is read while playback
+ * advances. Positions in between are interpolated on the great circle every tick.
+ * Waypoints without time are spaced at a constant speed, see TrackTimes.
+ */
+public class TrackPlayer implements Runnable {
+    static final String TAG = "TrackPlayer";
+    private static final boolean DEBUG = false;
+
+    public static final long DEFAULT_TICK_MS = 100;
+    public static final double DEFAULT_SPEED = 1.4; // m/s, walking
+
+    private final IPC.SettingsClient settings;
+    private final Handler handler;
+    private long tickMs = DEFAULT_TICK_MS;
+    private double speed = DEFAULT_SPEED;
+
+    private TrackReader reader;
+    private TrackReader.Waypoint from = new TrackReader.Waypoint();
+    private TrackReader.Waypoint to = new TrackReader.Waypoint();
+    private final Geodesy.Segment segment = new Geodesy.Segment();
+    private final Location location = new Location("gps");
+    private long trackOffset;   // track time - elapsedRealtime, ms
+    private final TrackTimes times = new TrackTimes();
+    private boolean playing = false;
+
+    public TrackPlayer(IPC.SettingsClient settings, Looper looper) {
+        this.settings = settings;
+        handler = new Handler(looper);
+    }
+
+    public void setTick(long ms) {
+        tickMs = Math.max(1, ms);
+    }
+
+    // speed for waypoints without time, m/s
+    public void setSpeed(double mps) {
+        speed = Math.max(0.1, mps);
+    }
+
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * @param start current location, copied on the thread that handles settings' messages
+     */
+    public boolean play(File file, Location start) {
+        stop();
+
+        try {
+            reader = TrackFile.open(file);
+            if (!reader.next(from)) {
+                Log.e(TAG, "empty track " + file);
+                closeReader();
+                return false;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "can't read track " + file + ": " + e.getMessage());
+            closeReader();
+            return false;
+        }
+
+        times.start(from);
+        // zero-length first segment, the next tick advances to the real one
+        to.set(from);
+        segment.set(from.latitude, from.longitude, to.latitude, to.longitude);
+
+        location.set(start); // keep accuracy
+        trackOffset = from.time - SystemClock.elapsedRealtime();
+        playing = true;
+        Log.d(TAG, "playing " + file);
+
+        handler.post(this);
+        return true;
+    }
+
+    public void stop() {
+        handler.removeCallbacks(this);
+        playing = false;
+        closeReader();
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // don't care
+            }
+            reader = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!playing) {
+            return;
+        }
+
+        long trackTime = SystemClock.elapsedRealtime() + trackOffset;
+        try {
+            while (trackTime >= to.time) {
+                if (!advance()) {
+                    finish();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "track read failed: " + e.getMessage());
+            stop();
+            return;
+        }
+
+        long dt = to.time - from.time;
+        double f = (dt > 0) ? (double) (trackTime - from.time) / dt : 1.0;
+        segment.interpolate(f);
+
+        location.setLatitude(segment.latitude);
+        location.setLongitude(segment.longitude);
+        location.setAltitude(from.altitude + (to.altitude - from.altitude) * f);
+        location.setBearing((float) Math.toDegrees(segment.bearing));
+        location.setSpeed((dt > 0) ? (float) (segment.length * 1000.0 / dt) : 0.0f);
+        location.setTime(System.currentTimeMillis());
+        settings.sendLocation(location);
+
+        if (DEBUG) {
+            Log.d(TAG, "t " + trackTime + " f " + f + " location: " + location);
+        }
+
+        handler.postDelayed(this, tickMs);
+    }
+
+    // move on to the next segment, false at the end of the track
+    private boolean advance() throws IOException {
+        TrackReader.Waypoint tmp = from;
+        from = to;
+        to = tmp;
+
+        if (!reader.next(to)) {
+            return false;
+        }
+
+        segment.set(from.latitude, from.longitude, to.latitude, to.longitude);
+        times.next(from, to, segment.length, speed);
+        return true;
+    }
+
+    // stay at the last waypoint
+    private void finish() {
+        location.setLatitude(from.latitude);
+        location.setLongitude(from.longitude);
+        location.setAltitude(from.altitude);
+        location.setSpeed(0.0f);
+        location.setTime(System.currentTimeMillis());
+        settings.sendLocation(location);
+
+        Log.d(TAG, "track finished");
+        stop();
+    }
+}
@@ -2,15 +2,24 @@ package com.github.spezifisch.threestepsahead.hooks;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.Random;
 
 import android.location.GpsSatellite;
 import android.location.GpsStatus;
 import android.location.Location;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
+import android.os.Process;
 
+import com.github.spezifisch.threestepsahead.AppTable;
+import com.github.spezifisch.threestepsahead.utils.Constellation;
+import com.github.spezifisch.threestepsahead.utils.FixBatch;
+import com.github.spezifisch.threestepsahead.utils.GnssSnapshot;
 import com.github.spezifisch.threestepsahead.utils.Helper;
 import com.github.spezifisch.threestepsahead.utils.SpaceMan;
 
@@ -23,6 +32,13 @@ import de.robv.android.xposed.XC_MethodHook;
 public class GPS {
     private static final boolean DEBUG = false;
 
+    static final SpaceMan.Logger XPOSED_LOG = new SpaceMan.Logger() {
+        @Override
+        public void log(String s) {
+            XposedBridge.log(s);
+        }
+    };
+
     // GPS satellite calculator
     private SpaceMan spaceMan;
 
@@ -35,67 +51,74 @@ public class GPS {
 
     private long lastLocationTime = 0;
 
+    // AppTable features of this app
+    private final boolean hookGps, hookFused, hookStatus;
+
+    // fused location hooks, shared by all packages loaded into this process
+    private static HookRegistry fusedListeners, fusedCallbacks, fusedApiRequests, fusedApiLastLocation;
+
+    // GpsStatus can't hold more (NUM_SATELLITES)
+    static final int MAX_SATELLITES = 255;
+
+    public GPS(int features) {
+        hookGps = (features & AppTable.FEATURE_GPS) != 0;
+        hookFused = (features & AppTable.FEATURE_FUSED) != 0;
+        hookStatus = (features & AppTable.FEATURE_STATUS) != 0;
+    }
+
     public static void initZygote(final IXposedHookZygoteInit.StartupParam startupParam) throws Throwable {
         // hook nothing globally
     }
 
     public void handleLoadPackage(final XC_LoadPackage.LoadPackageParam lpparam) throws Throwable {
         // hook LocationManager of relevant packages
-        initHookListenerTransport(lpparam);
-        initHookGpsStatus(lpparam);
-        initHookGetLastKnownLocation(lpparam);
-        initHookFusedLocation(lpparam);
+        if (hookGps) {
+            initHookListenerTransport(lpparam);
+            initHookGetLastKnownLocation(lpparam);
+        }
+        if (hookStatus) {
+            initHookGpsStatus(lpparam);
+            initHookGnssStatus(lpparam);
+        }
+        if (hookFused) {
+            initHookFusedLocation(lpparam);
+        }
     }
 
-    void initHookListenerTransport(final XC_LoadPackage.LoadPackageParam lpparam) {
-        class ListenerTransportHook extends XC_MethodHook {
-            // this hooks an internal method of LocationManager, which calls OnLocationChanged and other callbacks
-
-            @Override
-            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                if (param.hasThrowable()) {
-                    return;
-                }
-                if (!Main.connectAndRun()) {
-                    return;
-                }
-
-                Message message = (Message) param.args[0];
-                if (message.what == 1) { // TYPE_LOCATION_CHANGED
-                    // see: https://android.googlesource.com/platform/frameworks/base/+/refs/heads/master/location/java/android/location/LocationManager.java
-
-                    Location realLocation = (Location) message.obj;
+    // this hooks an internal method of LocationManager, which calls OnLocationChanged and other callbacks.
+    // A member class so ListenerTransportBenchmark can drive it.
+    class ListenerTransportHook extends XC_MethodHook {
+        @Override
+        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+            if (param.hasThrowable()) {
+                return;
+            }
+            if (!Main.connectAndRun()) {
+                return;
+            }
 
-                    if (realLocation != null) {
-                        // update location noise
-                        long locationTime = realLocation.getTime();
-                        if (locationTime != lastLocationTime) {
-                            if (DEBUG) {
-                                XposedBridge.log(Main.Shared.packageName + " | " + locationTime +
-                                        " ListenerTransport updating location " + locationTime + " last " + lastLocationTime);
-                            }
+            Message message = (Message) param.args[0];
+            if (message.what == 1) { // TYPE_LOCATION_CHANGED
+                // see: https://android.googlesource.com/platform/frameworks/base/+/refs/heads/master/location/java/android/location/LocationManager.java
 
-                            // only when real GPS location was updated
-                            Main.updateLocation(locationTime);
-                            lastLocationTime = locationTime;
-                        }
+                Location realLocation = (Location) message.obj;
 
-                        // overwrite real location
-                        message.obj = fakeLocation(realLocation);
-                        param.args[0] = message;
+                if (realLocation != null) {
+                    // overwrite real location in place
+                    onLocationChanged(realLocation);
 
-                        Location mojl = (Location) message.obj;
-                        //if (DEBUG) {
-                            XposedBridge.log(Main.Shared.packageName + " | " + locationTime +
-                                    " ListenerTransport Location faked(" + mojl.getTime() + ") " + mojl);
-                        //}
+                    if (DEBUG) {
+                        XposedBridge.log(Main.Shared.packageName + " | " + lastLocationTime +
+                                " ListenerTransport Location faked(" + realLocation.getTime() + ") " + realLocation);
                     }
-                } else {
-                    XposedBridge.log("ListenerTransport unhandled message(" + message.what + ") " + message.obj);
                 }
+            } else if (DEBUG) {
+                XposedBridge.log("ListenerTransport unhandled message(" + message.what + ") " + message.obj);
             }
         }
+    }
 
+    void initHookListenerTransport(final XC_LoadPackage.LoadPackageParam lpparam) {
         XposedHelpers.findAndHookMethod("android.location.LocationManager$ListenerTransport", lpparam.classLoader,
                 "_handleMessage", Message.class, new ListenerTransportHook());
     }
@@ -105,6 +128,20 @@ public class GPS {
             // This hooks getGpsStatus function which returns GpsStatus.
             // We use the internal method setStatus to override the satellite info.
 
+            // setStatus(int svCount, int[] prns, float[] snrs, float[] elevations, float[] azimuths,
+            //           int ephemerisMask, int almanacMask, int usedInFixMask)
+            private final Method setStatus;
+
+            // reused for every call, setStatus copies the first svCount entries
+            private final int[] prns = new int[MAX_SATELLITES];
+            private final float[] snrs = new float[MAX_SATELLITES];
+            private final float[] elevations = new float[MAX_SATELLITES];
+            private final float[] azimuths = new float[MAX_SATELLITES];
+
+            GpsStatusHook(Method setStatus) {
+                this.setStatus = setStatus;
+            }
+
             protected void checkDeviceCharacteristics(GpsStatus origStatus) {
                 if (origStatus == null) {
                     return;
@@ -115,9 +152,8 @@ public class GPS {
                         old_fix = devFixAlwaysFalse, old_gps = devGpsOnly;
 
                 for (GpsSatellite gs: origStatus.getSatellites()) {
-                    if (gs.getPrn() > 50) {
+                    if (Constellation.fromLegacyPrn(gs.getPrn()) != Constellation.GPS) {
                         devGpsOnly = false;
-                        continue; // we only care about GPS right now
                     }
                     if (gs.hasAlmanac()) {
                         devAlmanacAlwaysFalse = false;
@@ -149,7 +185,7 @@ public class GPS {
                 // initialize gps calc
                 if (spaceMan == null) {
                     spaceMan = new SpaceMan();
-                    spaceMan.inXposed = true;
+                    spaceMan.setLogger(XPOSED_LOG);
                 }
 
                 // update TLE
@@ -158,31 +194,16 @@ public class GPS {
                     spaceMan.parseTLE(Main.Shared.settings.getTLE());
                 }
 
-                boolean firstTime = (spaceMan.getCalculatedLocation() == null);
+                // cheap with the ephemeris cache, so always use current time and location
+                spaceMan.setGpsOnly(devGpsOnly);
+                spaceMan.setNow();
+                spaceMan.setGroundStationPosition(Main.State.location.getLatitude(),
+                            Main.State.location.getLongitude(), Main.State.location.getAltitude());
+                spaceMan.calculatePositions();
 
-                long elapsedSinceCalc = System.currentTimeMillis() - spaceMan.getNow(); // ms
-                // time limit: azi/ele can change quite fast in edge cases
-                boolean bigTime = (elapsedSinceCalc > 10*1000);
-                // distance limit
-                boolean bigDistance = false;
-                if (!firstTime) { // need old location for this
-                    // just an arbitrary value
-                    bigDistance = (spaceMan.getCalculatedLocation().distanceTo(Main.State.location) > 500.0 /* m */);
-                }
-
-                // need to recalculate sats?
-                if (firstTime || bigDistance || bigTime) {
-                    XposedBridge.log("recalculating satellites");
-
-                    // calculate satellite positions for current location and time
-                    spaceMan.setNow();
-                    spaceMan.setGroundStationPosition(Main.State.location);
-                    spaceMan.calculatePositions();
-
-                    if (Main.Settings.DEBUG) {
-                        spaceMan.dumpSatelliteInfo();
-                        spaceMan.dumpGpsSatellites();
-                    }
+                if (Main.Settings.DEBUG) {
+                    spaceMan.dumpSatelliteInfo();
+                    spaceMan.dumpGpsSatellites();
                 }
 
                 return spaceMan.getGpsSatellites();
@@ -203,76 +224,217 @@ public class GPS {
                 // gather info about real GPS device to emulate it better
                 checkDeviceCharacteristics(gpsStatus);
 
-                // get satellites in view from set location
-                ArrayList<SpaceMan.MyGpsSatellite> mygps = getMySatellites();
-
-                // use internal method setStatus to overwrite satellite info
-                Method[] declaredMethods = GpsStatus.class.getDeclaredMethods();
-                for (Method method: declaredMethods) {
-                    if (method.getName().equals("setStatus") && method.getParameterTypes().length >= 8) {
-                        // setStatus(int svCount, int[] prns, float[] snrs, float[] elevations, float[] azimuths,
-                        //           int ephemerisMask, int almanacMask, int usedInFixMask)
-
-                        // put data from my gps sats in these great arrays
-                        int svCount = mygps.size();
-                        int[] prns = new int[svCount];
-                        float[] snrs = new float[svCount];
-                        float[] elevations = new float[svCount];
-                        float[] azimuths = new float[svCount];
-                        int ephemerisMask = 0;
-                        int almanacMask = 0;
-                        int usedInFixMask = 0;
-
-                        int i = 0;
-                        for (SpaceMan.MyGpsSatellite gs: mygps) {
-                            prns[i] = gs.prn;
-                            if (Main.Settings.simulateNoise) {
-                                snrs[i] = Math.round(gs.snr + Main.State.rand.nextGaussian()*1.2f); // variance is quite low
-                            } else {
-                                snrs[i] = gs.snr;
+                // arrays and satellite list are shared, getGpsStatus may be called from several threads
+                synchronized (this) {
+                    // get satellites in view from set location
+                    ArrayList<SpaceMan.MyGpsSatellite> mygps = getMySatellites();
+
+                    // put data from my gps sats in these great arrays
+                    int svCount = Math.min(mygps.size(), MAX_SATELLITES);
+                    int ephemerisMask = 0;
+                    int almanacMask = 0;
+                    int usedInFixMask = 0;
+
+                    for (int i = 0; i < svCount; i++) {
+                        SpaceMan.MyGpsSatellite gs = mygps.get(i);
+
+                        prns[i] = gs.prn;
+                        if (Main.Settings.simulateNoise) {
+                            snrs[i] = Math.round(gs.snr + Main.State.rand.nextGaussian()*1.2f); // variance is quite low
+                        } else {
+                            snrs[i] = gs.snr;
+                        }
+                        // these are always rounded to integers, no noise
+                        elevations[i] = Math.round(gs.elevation);
+                        azimuths[i] = Math.round(gs.azimuth);
+
+                        // masks are 32 bit, only for GPS PRNs
+                        int prnShift = (gs.prn >= 1 && gs.prn <= 32) ? (1 << (gs.prn - 1)) : 0;
+                        if (gs.hasEphemeris && !devEphemerisAlwaysFalse) {
+                            ephemerisMask |= prnShift;
+                        }
+                        if (gs.hasAlmanac && !devAlmanacAlwaysFalse) {
+                            almanacMask |= prnShift;
+                        }
+                        if (gs.usedInFix && !devFixAlwaysFalse) {
+                            if (!Main.Settings.simulateNoise) {
+                                usedInFixMask |= prnShift;
+                            } else if (Main.State.rand.nextFloat() > fixDropRate) {
+                                usedInFixMask |= prnShift;
                             }
-                            // these are always rounded to integers, no noise
-                            elevations[i] = Math.round(gs.elevation);
-                            azimuths[i] = Math.round(gs.azimuth);
+                        }
+                    }
 
-                            int prnShift = (1 << (gs.prn - 1));
-                            if (gs.hasEphemeris && !devEphemerisAlwaysFalse) {
-                                ephemerisMask |= prnShift;
-                            }
-                            if (gs.hasAlmanac && !devAlmanacAlwaysFalse) {
-                                almanacMask |= prnShift;
-                            }
-                            if (gs.usedInFix && !devFixAlwaysFalse) {
-                                if (!Main.Settings.simulateNoise) {
-                                    usedInFixMask |= prnShift;
-                                } else if (Main.State.rand.nextFloat() > fixDropRate) {
-                                    usedInFixMask |= prnShift;
-                                }
-                            }
+                    // call private setStatus method to apply these values
+                    try {
+                        setStatus.invoke(gpsStatus, svCount, prns, snrs, elevations, azimuths, ephemerisMask, almanacMask, usedInFixMask);
+                        param.setResult(gpsStatus);
 
-                            i++;
+                        if (DEBUG) {
+                            XposedBridge.log("GpsStatus faked: " + gpsStatus);
                         }
+                    } catch (Throwable e) {
+                        XposedBridge.log(e);
+                    }
+                }
+            }
+        }
 
-                        // call private setStatus method to apply these values
-                        try {
-                            method.setAccessible(true);
-                            method.invoke(gpsStatus, svCount, prns, snrs, elevations, azimuths, ephemerisMask, almanacMask, usedInFixMask);
-                            method.setAccessible(false);
-                            param.setResult(gpsStatus);
+        // look up internal setStatus once per process
+        Method setStatus = findGpsStatusSetStatus();
+        if (setStatus == null) {
+            XposedBridge.log("GpsStatus.setStatus not found, not hooking getGpsStatus");
+            return;
+        }
 
-                            XposedBridge.log("GpsStatus faked: " + gpsStatus);
-                        } catch (Throwable e) {
-                            XposedBridge.log(e);
+        XposedHelpers.findAndHookMethod("android.location.LocationManager", lpparam.classLoader,
+                "getGpsStatus", GpsStatus.class, new GpsStatusHook(setStatus));
+    }
+
+    // first List instance member of clazz or its superclasses, made accessible
+    static Field findListField(Class<?> clazz) {
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field: c.getDeclaredFields()) {
+                if (List.class.isAssignableFrom(field.getType()) && !Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    return field;
+                }
+            }
+        }
+        return null;
+    }
+
+    static Method findGpsStatusSetStatus() {
+        for (Method method: GpsStatus.class.getDeclaredMethods()) {
+            if (method.getName().equals("setStatus") && method.getParameterTypes().length >= 8) {
+                method.setAccessible(true);
+                return method;
+            }
+        }
+        return null;
+    }
+
+    void initHookGnssStatus(final XC_LoadPackage.LoadPackageParam lpparam) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return; // no GnssStatus yet
+        }
+
+        // Calculates satellites in the background, so the callback thread only picks up the newest result.
+        class GnssSnapshotProducer implements Runnable {
+            static final long PERIOD_MS = 1000;
+
+            private final SpaceMan spaceMan = new SpaceMan();
+            private final Random rand = new Random();
+            private final Location location = new Location("");
+            private Handler handler;
+            // EMPTY until satellites were calculated once
+            volatile GnssSnapshot snapshot = GnssSnapshot.EMPTY;
+
+            synchronized void start() {
+                if (handler != null) {
+                    return;
+                }
+                spaceMan.setLogger(XPOSED_LOG);
+
+                HandlerThread thread = new HandlerThread("GnssSnapshot", Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                handler = new Handler(thread.getLooper());
+                handler.post(this);
+            }
+
+            @Override
+            public void run() {
+                try {
+                    // update TLE
+                    if (spaceMan.getTLECount() == 0 && Main.Shared.serviceClient.isConnected()) {
+                        String tle = Main.Shared.settings.getTLE();
+                        if (tle.isEmpty()) {
+                            Main.Shared.settings.requestTLE(); // async, try again next time
+                        } else {
+                            spaceMan.parseTLE(tle);
                         }
+                    }
+
+                    // hook threads update the location in place, work on our own copy
+                    if (spaceMan.getTLECount() > 0 && Main.copyLocation(location)) {
+                        spaceMan.setGpsOnly(devGpsOnly);
+                        spaceMan.setNow();
+                        spaceMan.setGroundStationPosition(location.getLatitude(),
+                                location.getLongitude(), location.getAltitude());
+                        spaceMan.calculatePositions();
 
-                        break;
+                        snapshot = GnssSnapshot.build(spaceMan.getGpsSatellites(), spaceMan.getNow(),
+                                Main.Settings.simulateNoise ? rand : null, fixDropRate);
                     }
+                } catch (Throwable e) {
+                    XposedBridge.log(e);
                 }
+
+                handler.postDelayed(this, PERIOD_MS);
             }
         }
 
-        XposedHelpers.findAndHookMethod("android.location.LocationManager", lpparam.classLoader,
-                "getGpsStatus", GpsStatus.class, new GpsStatusHook());
+        final GnssSnapshotProducer producer = new GnssSnapshotProducer();
+
+        class GnssStatusTransportHook extends XC_MethodHook {
+            // This hooks the internal IGnssStatusListener of LocationManager, which builds the GnssStatus
+            // for GnssStatus.Callback (and GpsStatus.Listener) from these arrays:
+            // onSvStatusChanged(int svCount, int[] svidWithFlags, float[] cn0s, float[] elevations,
+            //                   float[] azimuths[, float[] carrierFreqs])
+            // So we replace them and get called at the rate of the real receiver.
+
+            @Override
+            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                if (param.hasThrowable()) {
+                    return;
+                }
+                if (!Main.connectAndRun()) {
+                    return;
+                }
+                Object[] args = param.args;
+                if (args.length < 5) {
+                    return;
+                }
+
+                // check real status for device characteristics
+                int realCount = (Integer) args[0];
+                int[] realSvids = (int[]) args[1];
+                for (int i = 0; i < realCount && i < realSvids.length; i++) {
+                    int constellation = (realSvids[i] >> GnssSnapshot.CONSTELLATION_TYPE_SHIFT_WIDTH) & 0xf;
+                    if (constellation != Constellation.GPS) {
+                        devGpsOnly = false;
+                    }
+                }
+
+                producer.start();
+
+                // never modified after publishing, GnssStatus keeps these arrays
+                GnssSnapshot s = producer.snapshot;
+                if (s == GnssSnapshot.EMPTY) {
+                    return; // real satellites until ours are ready, rather than none
+                }
+                args[0] = s.svCount;
+                args[1] = s.svidWithFlags;
+                args[2] = s.cn0s;
+                args[3] = s.elevations;
+                args[4] = s.azimuths;
+                if (args.length > 5 && args[5] instanceof float[]) {
+                    args[5] = s.carrierFrequencies;
+                }
+
+                if (DEBUG) {
+                    XposedBridge.log("GnssStatus faked: " + s.svCount + " sats");
+                }
+            }
+        }
+
+        Class<?> transport = XposedHelpers.findClassIfExists(
+                "android.location.LocationManager$GnssStatusListenerTransport", lpparam.classLoader);
+        if (transport != null) {
+            XposedBridge.hookAllMethods(transport, "onSvStatusChanged", new GnssStatusTransportHook());
+        } else {
+            XposedBridge.log("GnssStatusListenerTransport not found, not hooking GnssStatus");
+        }
     }
 
     void initHookGetLastKnownLocation(final XC_LoadPackage.LoadPackageParam lpparam) {
@@ -315,13 +477,21 @@ public class GPS {
                     Location location = fakeLocation((Location)param.args[0]);
                     param.args[0] = location;
 
-                    XposedBridge.log("onLocationChangedFusedHook Location faked: " + location);
+                    if (DEBUG) {
+                        XposedBridge.log("onLocationChangedFusedHook Location faked: " + location);
+                    }
                 }
             }
         }
 
         // hook for com.google.android.gms.location.LocationCallback
         class onLocationResultFusedHook extends XC_MethodHook {
+            // List<Location> member of the last seen LocationResult class, its name is obfuscated
+            private Class<?> resultClass;
+            private Field locationsField;
+
+            private final FixBatch batch = new FixBatch();
+
             @Override
             protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
                 if (param.hasThrowable()) {
@@ -331,35 +501,73 @@ public class GPS {
                     return;
                 }
 
-                XposedBridge.log("onLocationResultFusedHook called");
+                Object locationResult = param.args[0];
+                if (locationResult == null) {
+                    return;
+                }
 
-                if (param.args[0] != null) {
-                    Object locationResult = param.args[0];
+                Field field = getLocationsField(locationResult.getClass());
+                if (field == null) {
+                    return;
+                }
 
-                    // get real location list from members of LocationResult
-                    List<Location> llObject = new ArrayList<>();
-                    Field locationList = XposedHelpers.findFirstFieldByExactType(locationResult.getClass(), llObject.getClass());
-                    locationList.setAccessible(true);
-                    locationList.get(llObject);
+                List<?> locations = (List<?>) field.get(locationResult);
+                final int count = locations != null ? locations.size() : 0;
+                if (count == 0) {
+                    return;
+                }
+                Location newest = (Location) locations.get(count - 1);
+                if (newest == null) {
+                    return;
+                }
 
-                    XposedBridge.log("onLocationResultFusedHook real list: " + llObject);
+                // keep the fix other hooks return in line with the newest one of the batch
+                long newestTime = newest.getTime();
+                if (newestTime != lastLocationTime) {
+                    Main.updateLocation(newestTime);
+                    lastLocationTime = newestTime;
+                }
 
-                    if (llObject.size() > 0) {
-                        // get data from newest location
-                        Location location = fakeLocation(llObject.get(llObject.size() - 1));
+                // fake all locations in place along the simulated trajectory, at their own timestamps
+                synchronized (batch) {
+                    final Location l = Main.Shared.settings.getLocation();
+                    batch.begin(Main.Shared.settings.getSessionKey(), newestTime,
+                            l.getLatitude(), l.getLongitude(), l.getBearing(), l.getSpeed(), l.getAccuracy(),
+                            Main.Settings.simulateNoise);
 
-                        // build own list
-                        List<Location> llMy = new ArrayList<>();
-                        llMy.add(location);
+                    for (int i = 0; i < count; i++) {
+                        Location location = (Location) locations.get(i);
+                        if (location == null) {
+                            continue;
+                        }
 
-                        // overwrite original list
-                        locationList.set(llObject, llMy);
+                        batch.at(location.getTime());
+                        location.setLatitude(batch.latitude);
+                        location.setLongitude(batch.longitude);
+                        if (location.hasSpeed()) {
+                            location.setSpeed(batch.speed);
+                        }
+                        if (location.hasBearing()) {
+                            location.setBearing(batch.bearing);
+                        }
+                    }
+                    batch.end();
+                }
 
-                        XposedBridge.log("onLocationResultFusedHook real list replaced");
-                    } else {
-                        XposedBridge.log("onLocationResultFusedHook real list was empty");
+                if (DEBUG) {
+                    XposedBridge.log("onLocationResultFusedHook faked " + count + " locations");
+                }
+            }
+
+            private synchronized Field getLocationsField(Class<?> clazz) {
+                if (clazz != resultClass) {
+                    resultClass = clazz;
+                    locationsField = findListField(clazz);
+                    if (locationsField == null) {
+                        XposedBridge.log("onLocationResultFusedHook: no location list in " + clazz.getName());
                     }
                 }
+                return locationsField;
             }
         }
 
@@ -381,28 +589,25 @@ public class GPS {
                     }
 
                     String cname = arg.getClass().getName();
-                    XposedBridge.log("FusedLocationApi.requestLocationUpdates arg: " + cname + " -> " + arg);
+                    if (DEBUG) {
+                        XposedBridge.log("FusedLocationApi.requestLocationUpdates arg: " + cname + " -> " + arg);
+                    }
 
                     if (!cname.startsWith("com.google.android.gms.internal") &&
                             !cname.equals("com.google.android.gms.location.LocationRequest") &&
                             !cname.equals("android.os.Looper")) {
-                        hookLocationListener(arg.getClass());
-                        hookLocationCallback(arg.getClass());
+                        // each class is only hooked once, no matter how often it's passed here
+                        if (fusedListeners.hook(arg.getClass())) {
+                            XposedBridge.log("hooked onLocationChanged of " + cname);
+                        }
+                        if (fusedCallbacks.hook(arg.getClass())) {
+                            XposedBridge.log("hooked onLocationResult of " + cname);
+                        }
                     }
                 }
-            }
 
-            void hookLocationListener(Class<?> ll) {
-                Set<Unhook> unhooks = XposedBridge.hookAllMethods(ll, "onLocationChanged", new onLocationChangedFusedHook());
-                if (unhooks.size() > 0) {
-                    XposedBridge.log("hooked onLocationChanged");
-                }
-            }
-
-            void hookLocationCallback(Class<?> lc) {
-                Set<Unhook> unhooks = XposedBridge.hookAllMethods(lc, "onLocationResult", new onLocationResultFusedHook());
-                if (unhooks.size() > 0) {
-                    XposedBridge.log("hooked onLocationResult");
+                if (DEBUG) {
+                    XposedBridge.log(fusedListeners + ", " + fusedCallbacks);
                 }
             }
         }
@@ -436,16 +641,43 @@ public class GPS {
             // get FusedLocationProviderApi implementation
             Object fla = XposedHelpers.getStaticObjectField(clazz, "FusedLocationApi");
 
+            synchronized (GPS.class) {
+                if (fusedApiRequests == null) {
+                    fusedListeners = new HookRegistry("onLocationChanged", new onLocationChangedFusedHook());
+                    fusedCallbacks = new HookRegistry("onLocationResult", new onLocationResultFusedHook());
+                    fusedApiRequests = new HookRegistry("requestLocationUpdates", new requestLocationUpdatesFusedHook());
+                    fusedApiLastLocation = new HookRegistry("getLastLocation", new getLastLocationFusedHook());
+                }
+            }
+
             // hook all versions of requestLocationUpdates
-            XposedBridge.hookAllMethods(fla.getClass(), "requestLocationUpdates", new requestLocationUpdatesFusedHook());
+            fusedApiRequests.hook(fla.getClass());
 
             // hook getLastLocation
-            XposedBridge.hookAllMethods(fla.getClass(), "getLastLocation", new getLastLocationFusedHook());
+            fusedApiLastLocation.hook(fla.getClass());
         } else {
             XposedBridge.log("LocationServices not found, don't need to hook FusedLocationApi");
         }
     }
 
+    // hot path for every location callback, must not allocate
+    Location onLocationChanged(Location realLocation) {
+        // update location noise
+        long locationTime = realLocation.getTime();
+        if (locationTime != lastLocationTime) {
+            if (DEBUG) {
+                XposedBridge.log(Main.Shared.packageName + " | " + locationTime +
+                        " ListenerTransport updating location " + locationTime + " last " + lastLocationTime);
+            }
+
+            // only when real GPS location was updated
+            Main.updateLocation(locationTime);
+            lastLocationTime = locationTime;
+        }
+
+        return fakeLocation(realLocation);
+    }
+
     private Location fakeLocation(Location loc) {
         final Location l = Main.State.location;
 
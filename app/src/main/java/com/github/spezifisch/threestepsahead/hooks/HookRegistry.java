@@ -0,0 +1,76 @@
+package com.github.spezifisch.threestepsahead.hooks;
+
+import java.util.HashMap;
+import java.util.Set;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+
+/**
+ * Hooks a method on classes only seen at runtime (e.g. listeners passed to requestLocationUpdates)
+ * exactly once per class, however often the app re-subscribes.
+ *
+ * The Unhooks are kept per class. Classes without the method are remembered too, so they aren't
+ * searched again.
+ */
+public class HookRegistry {
+    private final String methodName;
+    private final XC_MethodHook callback;
+    private final HashMap<Class<?>, Set<XC_MethodHook.Unhook>> hooked = new HashMap<>();
+
+    // counters
+    private int hits, misses, installed;
+
+    public HookRegistry(String methodName, XC_MethodHook callback) {
+        this.methodName = methodName;
+        this.callback = callback;
+    }
+
+    /**
+     * Hook all methods called methodName in clazz unless that was done before.
+     * @return true if hooks were installed just now
+     */
+    public synchronized boolean hook(Class<?> clazz) {
+        if (hooked.containsKey(clazz)) {
+            hits++;
+            return false;
+        }
+        misses++;
+
+        Set<XC_MethodHook.Unhook> unhooks = XposedBridge.hookAllMethods(clazz, methodName, callback);
+        hooked.put(clazz, unhooks);
+        installed += unhooks.size();
+        return unhooks.size() > 0;
+    }
+
+    /**
+     * Remove all hooks of this registry, classes will be hooked again on the next hook() call.
+     */
+    public synchronized void unhookAll() {
+        for (Set<XC_MethodHook.Unhook> unhooks: hooked.values()) {
+            for (XC_MethodHook.Unhook unhook: unhooks) {
+                unhook.unhook();
+            }
+        }
+        hooked.clear();
+        installed = 0;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized int getInstalled() {
+        return installed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return methodName + ": " + hooked.size() + " classes, " + installed + " hooks installed, " +
+                hits + " hits, " + misses + " misses";
+    }
+}
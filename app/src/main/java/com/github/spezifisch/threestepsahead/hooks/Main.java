@@ -2,12 +2,12 @@ package com.github.spezifisch.threestepsahead.hooks;
 
 import android.location.Location;
 
+import com.github.spezifisch.threestepsahead.AppTable;
 import com.github.spezifisch.threestepsahead.IPC;
 import com.github.spezifisch.threestepsahead.SettingsStorage;
-import com.github.spezifisch.threestepsahead.utils.LocationHelper;
+import com.github.spezifisch.threestepsahead.utils.LocationNoise;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Random;
 
 import de.robv.android.xposed.IXposedHookLoadPackage;
@@ -22,15 +22,9 @@ public class Main implements IXposedHookLoadPackage, IXposedHookZygoteInit {
         static final boolean DEBUG = false;
         static boolean simulateNoise = true;
         static final long RAND_ADD = 234213370;
-        static final boolean HOOK_SENSORS = false;
-
-        // apps to hook
-        static final List<String> hookedApps = Arrays.asList(
-                "com.google.android.gms",
-                "com.vonglasow.michael.satstat",
-                "com.nianticlabs.pokemongo",
-                "com.google.android.gms.location.sample.locationupdates"
-        );
+
+        // apps to hook -> AppTable features, loaded once in initZygote
+        static HashMap<String, Integer> apps;
     }
 
     public static class Shared {
@@ -45,28 +39,25 @@ public class Main implements IXposedHookLoadPackage, IXposedHookZygoteInit {
         static Location location;
         static boolean locationFromSettings = false;
         static Random rand;
+        static final LocationNoise noise = new LocationNoise();
     };
 
     protected GPS gps;
     protected Sensor sensor;
 
-    public static boolean shouldHookApp(String s) {
-        return Settings.hookedApps.contains(s);
-    }
-
     @Override
     public void initZygote(IXposedHookZygoteInit.StartupParam startupParam) throws Throwable {
         // file settings
         Shared.settingsStorage = SettingsStorage.getSettingsStorage();
+        Settings.apps = Shared.settingsStorage.loadAppTable();
+        XposedBridge.log("hooking " + Settings.apps.size() + " apps");
 
         if (!Settings.simulateNoise) {
             XposedBridge.log("!!! Noise deactivated. This is not a good idea.");
         }
 
         GPS.initZygote(startupParam);
-        if (Settings.HOOK_SENSORS) {
-            Sensor.initZygote(startupParam);
-        }
+        Sensor.initZygote(startupParam);
     }
 
     @Override
@@ -79,7 +70,8 @@ public class Main implements IXposedHookLoadPackage, IXposedHookZygoteInit {
             XposedHelpers.setStaticBooleanField(clazz, "xposed_loaded", true);
         }
 
-        if (shouldHookApp(lpparam.packageName)) {
+        Integer features = Settings.apps.get(lpparam.packageName);
+        if (features != null) {
             XposedBridge.log(lpparam.packageName + " app loaded -> initing");
 
             // init random
@@ -96,6 +88,7 @@ public class Main implements IXposedHookLoadPackage, IXposedHookZygoteInit {
             // pair Service and Client
             Shared.serviceClient = new IPC.Client(Shared.settings);
             Shared.serviceClient.setInXposed(true);
+            Shared.serviceClient.setUseSharedLocation(true);
             Shared.settings.setClient(Shared.serviceClient);
 
             // init location from settings if possible
@@ -105,10 +98,12 @@ public class Main implements IXposedHookLoadPackage, IXposedHookZygoteInit {
             }
 
             // install hooks for app
-            gps = new GPS();
+            gps = new GPS(features);
             gps.handleLoadPackage(lpparam);
 
-            if (Settings.HOOK_SENSORS) {
+            // sensor events are faked per process, see Sensor
+            Integer processFeatures = Settings.apps.get(lpparam.processName);
+            if (processFeatures != null && (processFeatures & AppTable.FEATURE_SENSORS) != 0) {
                 sensor = new Sensor();
                 sensor.handleLoadPackage(lpparam);
             }
@@ -116,6 +111,7 @@ public class Main implements IXposedHookLoadPackage, IXposedHookZygoteInit {
     }
 
     public static boolean connectAndRun() {
+        // cheap once bound, connect() only binds once
         if (!Shared.serviceClient.connect()) {
             return false;   // don't run
         }
@@ -135,38 +131,44 @@ public class Main implements IXposedHookLoadPackage, IXposedHookZygoteInit {
     }
 
     public static void updateLocation(final long origLocationTime) {
-        // get current fake location
-        State.location = Shared.settings.getLocation();
-
-        // add gaussian noise with given sigma
-        if (Settings.simulateNoise) {
-            final Location l = State.location;
-
-            // seed random with orig. location's timestamp to get deterministic output values.
-            // we do this to get the same noise in all instances for the same location update,
-            // so all apps get the same noisy fake location. But alas it doesn't work.
-            if (origLocationTime != 0) {
-                State.rand = new Random(origLocationTime + Settings.RAND_ADD);
+        synchronized (State.class) {
+            // get current fake location, copied so the simulated one stays noise-free
+            final Location simulated = Shared.settings.getLocation();
+            if (State.location == null) {
+                State.location = new Location(simulated);
+            } else {
+                State.location.set(simulated);
             }
 
-            // bearing
-            final float randBearing = (float) (l.getBearing() + State.rand.nextGaussian() * 2.0) % 360.0f;
+            // add gaussian noise with given sigma
+            if (Settings.simulateNoise) {
+                final Location l = State.location;
 
-            // speed
-            float randSpeed;
-            if (l.getSpeed() > 1.0) {
-                randSpeed = (float) Math.abs(l.getSpeed() + State.rand.nextGaussian() * 0.2);
-            } else {
-                randSpeed = (float) Math.abs(l.getSpeed() + State.rand.nextGaussian() * 0.05);
-            }
+                // noise is a function of session key and fix time, so all apps
+                // get the same noisy fake location for the same real fix.
+                final LocationNoise n = State.noise;
+                n.apply(Shared.settings.getSessionKey(), origLocationTime,
+                        l.getLatitude(), l.getLongitude(), l.getBearing(), l.getSpeed(), l.getAccuracy());
 
-            // lat/lon
-            final double randDistance = State.rand.nextGaussian() * Math.max(5.0, l.getAccuracy()) / 6.0;
-            final double randTheta = Math.toRadians(State.rand.nextFloat() * 360.0);
+                l.setBearing(n.bearing);
+                l.setSpeed(n.speed);
+                l.setLatitude(n.latitude);
+                l.setLongitude(n.longitude);
+            }
+        }
+    }
 
-            State.location.setBearing(randBearing);
-            State.location.setSpeed(randSpeed);
-            State.location = LocationHelper.displace(State.location, randDistance, randTheta);
+    /**
+     * Consistent copy of State.location for background threads, never half updated.
+     * @return false if there's no location yet
+     */
+    public static boolean copyLocation(Location out) {
+        synchronized (State.class) {
+            if (State.location == null) {
+                return false;
+            }
+            out.set(State.location);
+            return true;
         }
     }
 }
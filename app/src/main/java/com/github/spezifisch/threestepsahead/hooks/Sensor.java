@@ -44,12 +44,15 @@
 
 package com.github.spezifisch.threestepsahead.hooks;
 
+import android.hardware.GeomagneticField;
+import android.location.Location;
 import android.os.Build;
-import android.util.SparseArray;
 
 import com.github.spezifisch.threestepsahead.utils.FakeSensor;
+import com.github.spezifisch.threestepsahead.utils.MagneticGrid;
+import com.github.spezifisch.threestepsahead.utils.SensorTable;
 
-import java.util.Arrays;
+import java.util.List;
 
 import de.robv.android.xposed.IXposedHookZygoteInit;
 import de.robv.android.xposed.XC_MethodHook;
@@ -60,15 +63,27 @@ import de.robv.android.xposed.callbacks.XC_LoadPackage;
 import static de.robv.android.xposed.XposedHelpers.findClass;
 
 public class Sensor {
-    protected FakeSensor fakeSensor;
+    protected final FakeSensor fakeSensor = new FakeSensor();
+    protected final SensorTable sensorTypes = new SensorTable();
+    protected final MagneticGrid magneticGrid = new MagneticGrid(WMM);
+
+    // the platform's World Magnetic Model
+    static final MagneticGrid.Model WMM = new MagneticGrid.Model() {
+        @Override
+        public void evaluate(double lat, double lon, double alt, long time, double[] out) {
+            GeomagneticField field = new GeomagneticField((float) lat, (float) lon, (float) alt, time);
+            out[0] = field.getX();
+            out[1] = field.getY();
+            out[2] = field.getZ();
+        }
+    };
 
     public static void initZygote(IXposedHookZygoteInit.StartupParam startupParam) throws Throwable {
         /** Shout out to abusalimov for his Light Sensor fix that inspired disableproxsensor. */
     }
 
+    // only installed in processes with AppTable.FEATURE_SENSORS, so the event hooks don't need to check
     public void handleLoadPackage(final XC_LoadPackage.LoadPackageParam lpparam) throws Throwable {
-        fakeSensor = new FakeSensor();
-
         hookSystemSensorManager(lpparam);
         //removeSensors(lpparam);
     }
@@ -86,17 +101,8 @@ public class Sensor {
                 protected void beforeHookedMethod(MethodHookParam param) {
                     android.hardware.Sensor sensor = (android.hardware.Sensor) param.args[0];
 
-                    //Use processName here always. Not packageName.
-                    if (Main.shouldHookApp(lpparam.processName)) {
-                        final float[] origValues = (float[]) param.args[1];
-                        final long origTimestamp = (long) param.args[2];
-                        final int origInAccuracy = (int) param.args[3];
-
-                        final float[] values = fakeSensorValues(sensor, origValues, origInAccuracy, origTimestamp);
-
-                        //noinspection SuspiciousSystemArraycopy
-                        System.arraycopy(values, 0, param.args[1], 0, values.length);
-                    }
+                    final long[] timestamp = (long[]) param.args[2];
+                    fakeSensorValues(sensor.getType(), (float[]) param.args[1], timestamp[0]);
                 }
             };
 
@@ -107,45 +113,45 @@ public class Sensor {
                     "onSensorChangedLocked", android.hardware.Sensor.class, float[].class, long[].class, int.class,
                     mockSensorHook);
         } else {
-            XC_MethodHook mockSensorHook = new XC_MethodHook() {
-                @SuppressWarnings("unchecked")
+            // learn handle -> type whenever the app lists sensors ...
+            XC_MethodHook sensorListHook = new XC_MethodHook() {
                 @Override
-                protected void beforeHookedMethod(MethodHookParam param)
-                        throws Throwable {
-                    // This pulls the 'Handle to Sensor' array straight from the SystemSensorManager class, so it should always pull the appropriate sensor.
-                    SparseArray<android.hardware.Sensor> sensors;
-                    // Marshmallow converted our field into a module level one, so we have different code based on that. Otherwise, the same.
-                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
-                        sensors = (SparseArray<android.hardware.Sensor>)
-                                XposedHelpers.getStaticObjectField(systemSensorManager, "sHandleToSensor");
-                    } else {
-                        Object systemSensorManager = XposedHelpers.getObjectField(param.thisObject, "mManager");
-                        sensors = (SparseArray<android.hardware.Sensor>)
-                                XposedHelpers.getObjectField(systemSensorManager, "mHandleToSensor");
+                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    List<?> sensors = (List<?>) param.getResult();
+                    if (sensors != null) {
+                        for (Object sensor: sensors) {
+                            registerSensor((android.hardware.Sensor) sensor);
+                        }
                     }
+                }
+            };
 
-                    // params.args[] is an array that holds the arguments that dispatchSensorEvent received, which are a handle pointing to a sensor
-                    // in sHandleToSensor and a float[] of values that should be applied to that sensor.
-                    int handle = (Integer) (param.args[0]); // This tells us which sensor was currently called.
-                    android.hardware.Sensor sensor = sensors.get(handle);
-
-                    if (Main.shouldHookApp(lpparam.processName)) {
-                        final float[] origValues = (float[]) param.args[1];
-                        final int origInAccuracy = (int) param.args[2];
-                        final long origTimestamp = (long) param.args[3];
-
-                        final float[] values = fakeSensorValues(sensor, origValues, origInAccuracy, origTimestamp);
-                        /*The SystemSensorManager compares the array it gets with the array from the a SensorEvent,
-                        and some sensors (looking at you, Proximity) only use one index in the array
-                        but still send along a length 3 array, so we copy here instead of replacing it
-                        outright. */
-
-                        //noinspection SuspiciousSystemArraycopy
-                        System.arraycopy(values, 0, param.args[1], 0, values.length);
+            // ... or registers a listener, before any of its events are dispatched
+            XC_MethodHook addSensorHook = new XC_MethodHook() {
+                @Override
+                protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                    if (param.args[0] instanceof android.hardware.Sensor) {
+                        registerSensor((android.hardware.Sensor) param.args[0]);
                     }
                 }
             };
 
+            XC_MethodHook mockSensorHook = new XC_MethodHook() {
+                @Override
+                protected void beforeHookedMethod(MethodHookParam param)
+                        throws Throwable {
+                    /*The SystemSensorManager compares the array it gets with the array from the a SensorEvent,
+                    and some sensors (looking at you, Proximity) only use one index in the array
+                    but still send along a length 3 array, so we write into it instead of replacing it
+                    outright. */
+                    dispatchSensorEvent((Integer) param.args[0], (float[]) param.args[1], (Long) param.args[3]);
+                }
+            };
+
+            XposedBridge.hookAllMethods(systemSensorManager, "getFullSensorList", sensorListHook);
+            XposedBridge.hookAllMethods(findClass("android.hardware.SystemSensorManager$BaseEventQueue", lpparam.classLoader),
+                    "addSensor", addSensorHook);
+
             // hook: dispatchSensorEvent(int handle, float[] values, int inAccuracy, long timestamp)
             // see: https://android.googlesource.com/platform/frameworks/base/+/master/core/java/android/hardware/SystemSensorManager.java#666
             XposedHelpers.findAndHookMethod("android.hardware.SystemSensorManager$SensorEventQueue", lpparam.classLoader,
@@ -154,6 +160,21 @@ public class Sensor {
         }
     }
 
+    // registration time, reflection is fine here
+    void registerSensor(android.hardware.Sensor sensor) {
+        if (sensor != null) {
+            sensorTypes.put(XposedHelpers.getIntField(sensor, "mHandle"), sensor.getType());
+        }
+    }
+
+    // per event: one array lookup, then a switch on the type
+    void dispatchSensorEvent(int handle, float[] values, long timestamp) {
+        final int type = sensorTypes.get(handle);
+        if (type != SensorTable.UNKNOWN) {
+            fakeSensorValues(type, values, timestamp);
+        }
+    }
+
     /**
      * Disable by removing the sensor data from the SensorManager. Apps will think the sensor does not exist.
      **//*
@@ -179,44 +200,49 @@ public class Sensor {
         });
     }*/
 
-    private float[] fakeSensorValues(final android.hardware.Sensor sensor, float[] values, int inAccuracy, long timestamp) {
-        XposedBridge.log("fakeSensorValues BEFORE: ts: " + timestamp + " type: " + sensor.getType() + " (" + sensor.getName() + ")" +
-                " accuracy: " + inAccuracy + " values: " + Arrays.toString(values));
+    // per event, must not allocate or log
+    private void fakeSensorValues(final int type, final float[] values, final long timestamp) {
+        if (values.length < 3) {
+            return;
+        }
 
-        fakeSensor.updateLocation(Main.State.location);
+        final Location l = Main.State.location;
+        if (l != null) {
+            fakeSensor.setMotion(l.getBearing(), l.getSpeed());
+        }
 
-        switch (sensor.getType()) {
+        switch (type) {
             case android.hardware.Sensor.TYPE_ACCELEROMETER:
-                values = fakeSensor.getAccelerometer(values);
+                fakeSensor.getAccelerometer(timestamp, values);
                 break;
 
             case android.hardware.Sensor.TYPE_MAGNETIC_FIELD:
-                values = fakeSensor.getMagneticField(values);
+                if (l != null) {
+                    // field of the fake location, full WMM evaluation only when entering a new grid cell
+                    magneticGrid.update(l.getLatitude(), l.getLongitude(), l.getAltitude(), System.currentTimeMillis());
+                    fakeSensor.setMagneticField(magneticGrid.north, magneticGrid.east, magneticGrid.down);
+                }
+                fakeSensor.getMagneticField(timestamp, values);
                 break;
 
             case android.hardware.Sensor.TYPE_GYROSCOPE:
-                values = fakeSensor.getGyroscope(values);
+                fakeSensor.getGyroscope(timestamp, values);
                 break;
 
             case android.hardware.Sensor.TYPE_GRAVITY:
-                values = fakeSensor.getGravity(values);
+                fakeSensor.getGravity(timestamp, values);
                 break;
 
             case android.hardware.Sensor.TYPE_LINEAR_ACCELERATION:
-                values = fakeSensor.getLinearAcceleration(values);
+                fakeSensor.getLinearAcceleration(timestamp, values);
                 break;
 
             case android.hardware.Sensor.TYPE_ROTATION_VECTOR:
-                fakeSensor.updateRotationVector(values);
-                values = fakeSensor.getRotationVector(values);
+                fakeSensor.getRotationVector(timestamp, values);
                 break;
 
             default:
-                XposedBridge.log("unhandled sensor");
+                // pass through
         }
-
-        XposedBridge.log("fakeSensorValues AFTER: ts: " + timestamp + " type: " + sensor.getType() + " (" + sensor.getName() + ")" +
-                " accuracy: " + inAccuracy + " values: " + Arrays.toString(values));
-        return values;
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,49 @@
 package com.github.spezifisch.threestepsahead.utils;
 
+import android.content.Context;
+
+import com.github.spezifisch.threestepsahead.R;
+
+import java.io.IOException;
+import java.io.InputStream;
+
 public class Helper {
+    // one file per celestrak group (gps-ops, glo-ops, ...), refreshed by ./gradlew :app:updateTle
+    static final int[] TLE_RESOURCES = {
+            R.raw.gps_ops_test1, R.raw.glo_ops, R.raw.galileo, R.raw.beidou, R.raw.qzss, R.raw.sbas,
+    };
+
+    /**
+     * TLEs of all constellations as a single catalogue for SpaceMan.
+     */
+    static public String readTLEs(Context context) {
+        StringBuilder sb = new StringBuilder();
+        for (int id : TLE_RESOURCES) {
+            String tles = readRaw(context, id).trim();
+            if (tles.isEmpty()) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(tles);
+        }
+        return sb.toString();
+    }
+
+    private static String readRaw(Context context, int id) {
+        InputStream is = context.getResources().openRawResource(id);
+        try {
+            return SpaceMan.readFile(is);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // read already
+            }
+        }
+    }
+
     public static boolean isPoGo(String name) {
         return name.equals("com.nianticlabs.pokemongo");
     }
@@ -0,0 +1,167 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Map tiles in an MBTiles file (SQLite). Opened once and kept open, so reading a tile is a single
+ * indexed query. A file from other tools can be dropped in place, tiles we download are added to it.
+ *
+ * MBTiles numbers rows from the south (TMS), methods here take slippy map y like osmdroid.
+ *
+ * Files from other tools often make tiles a view over deduplicated images. Those, and files we
+ * can't write, are only read from.
+ *
+ * Downloaded tiles get an expiry time in an extra table, tiles without one never expire.
+ */
+public class TileStore {
+    static final String TAG = "TileStore";
+
+    private final SQLiteDatabase db;
+    // null if read-only
+    private final SQLiteStatement insert, insertExpires, queryExpires;
+    private final String[] args = new String[3];
+
+    private TileStore(SQLiteDatabase db, boolean writable) {
+        this.db = db;
+        if (writable) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS tile_expires (zoom_level INTEGER, tile_column INTEGER, " +
+                    "tile_row INTEGER, expires INTEGER, PRIMARY KEY (zoom_level, tile_column, tile_row))");
+            insert = db.compileStatement(
+                    "INSERT OR REPLACE INTO tiles (zoom_level, tile_column, tile_row, tile_data) VALUES (?, ?, ?, ?)");
+            insertExpires = db.compileStatement(
+                    "INSERT OR REPLACE INTO tile_expires (zoom_level, tile_column, tile_row, expires) VALUES (?, ?, ?, ?)");
+            queryExpires = db.compileStatement(
+                    "SELECT expires FROM tile_expires WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+        } else {
+            insert = insertExpires = queryExpires = null;
+        }
+    }
+
+    /**
+     * @return null if the file can't be opened at all
+     */
+    public static TileStore open(File file) {
+        //noinspection ResultOfMethodCallIgnored
+        file.getParentFile().mkdirs();
+
+        SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        } catch (SQLiteException e) {
+            try {
+                db = SQLiteDatabase.openDatabase(file.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            } catch (SQLiteException e2) {
+                Log.e(TAG, "can't open " + file + ": " + e2);
+                return null;
+            }
+        }
+
+        try {
+            String type = tilesType(db);
+            if (type == null) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS metadata (name TEXT, value TEXT)");
+                db.execSQL("CREATE TABLE tiles " +
+                        "(zoom_level INTEGER, tile_column INTEGER, tile_row INTEGER, tile_data BLOB)");
+                db.execSQL("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+                type = "table";
+            }
+            return new TileStore(db, type.equals("table") && !db.isReadOnly());
+        } catch (SQLiteException e) {
+            Log.w(TAG, "using " + file + " read-only: " + e);
+            return new TileStore(db, false);
+        }
+    }
+
+    // "table", "view" or null if there's no tiles yet
+    private static String tilesType(SQLiteDatabase db) {
+        Cursor c = db.rawQuery("SELECT type FROM sqlite_master WHERE name = ?", new String[]{"tiles"});
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static int row(int zoom, int y) {
+        return (1 << zoom) - 1 - y;
+    }
+
+    /**
+     * @return encoded image, null if the tile isn't stored
+     */
+    public synchronized byte[] get(int zoom, int x, int y) {
+        args[0] = Integer.toString(zoom);
+        args[1] = Integer.toString(x);
+        args[2] = Integer.toString(row(zoom, y));
+        Cursor c = db.rawQuery(
+                "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?", args);
+        try {
+            return c.moveToFirst() ? c.getBlob(0) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * @param now ms since epoch
+     * @return true if the stored tile should be downloaded again
+     */
+    public synchronized boolean isExpired(int zoom, int x, int y, long now) {
+        if (queryExpires == null) {
+            return false;
+        }
+        queryExpires.bindLong(1, zoom);
+        queryExpires.bindLong(2, x);
+        queryExpires.bindLong(3, row(zoom, y));
+        try {
+            return queryExpires.simpleQueryForLong() <= now;
+        } catch (SQLiteDoneException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Add a tile, ignored if the store is read-only.
+     * @param expires ms since epoch
+     */
+    public synchronized void put(int zoom, int x, int y, byte[] data, long expires) {
+        if (insert == null) {
+            return;
+        }
+        final int row = row(zoom, y);
+        insert.bindLong(1, zoom);
+        insert.bindLong(2, x);
+        insert.bindLong(3, row);
+        insert.bindBlob(4, data);
+        insertExpires.bindLong(1, zoom);
+        insertExpires.bindLong(2, x);
+        insertExpires.bindLong(3, row);
+        insertExpires.bindLong(4, expires);
+        db.beginTransaction();
+        try {
+            insert.executeInsert();
+            insertExpires.executeInsert();
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.w(TAG, "can't store tile " + zoom + "/" + x + "/" + y + ": " + e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public synchronized void close() {
+        if (insert != null) {
+            insert.close();
+            insertExpires.close();
+            queryExpires.close();
+        }
+        db.close();
+    }
+}
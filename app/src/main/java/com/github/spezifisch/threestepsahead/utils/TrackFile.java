@@ -0,0 +1,168 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Opens track files for TrackPlayer, with the readers that need Android's XML parser.
+ */
+public class TrackFile {
+    private TrackFile() {
+    }
+
+    /**
+     * Picks the format by file extension, CSV if unknown.
+     */
+    public static TrackReader open(File file) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".gpx") || name.endsWith(".kml")) {
+                return new Xml(reader);
+            }
+            return new TrackReader.Csv(reader);
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * GPX trkpt/rtept and KML coordinates (LineString, gx:coord), streamed point by point.
+     * KML coordinates are split into tuples as the text arrives, only the tuple being read is
+     * kept. gx:Track times aren't used since they are listed apart from the coordinates.
+     */
+    public static class Xml extends TrackReader {
+        private final XmlPullParser parser;
+        private boolean inPoint = false;
+
+        // KML coordinates: rest of the current text event and the tuple read so far
+        private static final int MAX_TUPLE = 128;
+        private boolean inCoordinates = false;
+        private String text;
+        private int textPos;
+        private final StringBuilder tuple = new StringBuilder();
+
+        public Xml(Reader in) throws IOException {
+            super(in);
+            parser = android.util.Xml.newPullParser();
+            try {
+                parser.setInput(in);
+            } catch (XmlPullParserException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        private static String localName(String name) {
+            int i = name.indexOf(':');
+            return (i < 0) ? name : name.substring(i + 1);
+        }
+
+        @Override
+        public boolean next(Waypoint out) throws IOException {
+            try {
+                if (nextCoordinate(out)) {
+                    return true;
+                }
+
+                int event;
+                while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                    if (inCoordinates) {
+                        if (event == XmlPullParser.TEXT) {
+                            text = parser.getText();
+                            textPos = 0;
+                            if (nextCoordinate(out)) {
+                                return true;
+                            }
+                        } else if (event == XmlPullParser.END_TAG) {
+                            inCoordinates = false;
+                            if (tuple.length() > 0 && parseTuple(out)) {
+                                return true;
+                            }
+                        }
+                    } else if (event == XmlPullParser.START_TAG) {
+                        String name = localName(parser.getName());
+                        if (name.equals("trkpt") || name.equals("rtept")) {
+                            out.reset();
+                            out.latitude = Double.parseDouble(parser.getAttributeValue(null, "lat"));
+                            out.longitude = Double.parseDouble(parser.getAttributeValue(null, "lon"));
+                            inPoint = true;
+                        } else if (inPoint && name.equals("ele")) {
+                            out.altitude = Double.parseDouble(parser.nextText().trim());
+                        } else if (inPoint && name.equals("time")) {
+                            out.time = parseTime(parser.nextText().trim());
+                        } else if (name.equals("coordinates")) {
+                            inCoordinates = true;
+                            tuple.setLength(0);
+                        } else if (name.equals("coord")) {
+                            // gx:coord is "lon lat alt"
+                            String[] col = parser.nextText().trim().split("\\s+");
+                            if (col.length >= 2) {
+                                out.reset();
+                                out.longitude = Double.parseDouble(col[0]);
+                                out.latitude = Double.parseDouble(col[1]);
+                                if (col.length > 2) {
+                                    out.altitude = Double.parseDouble(col[2]);
+                                }
+                                return true;
+                            }
+                        }
+                    } else if (event == XmlPullParser.END_TAG && inPoint) {
+                        String name = localName(parser.getName());
+                        if (name.equals("trkpt") || name.equals("rtept")) {
+                            inPoint = false;
+                            return true;
+                        }
+                    }
+                }
+            } catch (XmlPullParserException | NumberFormatException | NullPointerException e) {
+                throw new IOException("Invalid track: " + e.getMessage());
+            }
+            return false;
+        }
+
+        // KML tuples are "lon,lat[,alt]" separated by whitespace, a tuple may span text events
+        private boolean nextCoordinate(Waypoint out) {
+            if (text == null) {
+                return false;
+            }
+
+            final int len = text.length();
+            while (textPos < len) {
+                char c = text.charAt(textPos++);
+                if (!Character.isWhitespace(c)) {
+                    if (tuple.length() == MAX_TUPLE) {
+                        throw new NumberFormatException("coordinates without separator");
+                    }
+                    tuple.append(c);
+                } else if (tuple.length() > 0 && parseTuple(out)) {
+                    return true;
+                }
+            }
+            text = null;
+            return false;
+        }
+
+        private boolean parseTuple(Waypoint out) {
+            String[] col = tuple.toString().split(",");
+            tuple.setLength(0);
+            if (col.length < 2) {
+                return false;
+            }
+            out.reset();
+            out.longitude = Double.parseDouble(col[0]);
+            out.latitude = Double.parseDouble(col[1]);
+            if (col.length > 2) {
+                out.altitude = Double.parseDouble(col[2]);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.spezifisch.threestepsahead;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+public class StateJournalTest {
+    private File file;
+    private FileOutputStream out;
+    private final CRC32 crc = new CRC32();
+    private long seq = 0;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("journal", null);
+        out = new FileOutputStream(file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        out.close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private void intact(int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(StateJournal.SIZE);
+        for (int i = 0; i < count; i++) {
+            StateJournal.encode(buf, 0, crc, seq, 52.52, 13.40 + seq, 34.0, 1000 * seq, 90.0f, 1.4f, 8.0f, true);
+            seq++;
+            out.write(buf.array());
+        }
+    }
+
+    // a record whose data doesn't match its checksum
+    private void corrupt() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(StateJournal.SIZE);
+        StateJournal.encode(buf, 0, crc, seq++, 52.52, 13.40, 34.0, 0, 90.0f, 1.4f, 8.0f, true);
+        buf.array()[StateJournal.OFF_LATITUDE] ^= 1;
+        out.write(buf.array());
+    }
+
+    // records the file system didn't get to, zero filled
+    private void zeros(int bytes) throws IOException {
+        out.write(new byte[bytes]);
+    }
+
+    // opens the journal, returns the recovered seq or -1
+    private long recover() throws IOException {
+        StateJournal journal = new StateJournal(file);
+        journal.openFile();
+        journal.closeFile();
+
+        StateJournal.State state = new StateJournal.State();
+        if (!journal.getLatest(state)) {
+            return -1;
+        }
+        assertEquals(13.40 + state.seq, state.longitude, 0);
+        assertTrue(state.enabled);
+        return state.seq;
+    }
+
+    private long records() {
+        assertEquals(0, file.length() % StateJournal.SIZE);
+        return file.length() / StateJournal.SIZE;
+    }
+
+    @Test
+    public void empty() throws IOException {
+        assertEquals(-1, recover());
+        assertEquals(0, records());
+    }
+
+    @Test
+    public void intactFile() throws IOException {
+        intact(5);
+        assertEquals(4, recover());
+        assertEquals(5, records());
+    }
+
+    @Test
+    public void tornTail() throws IOException {
+        intact(3);
+        zeros(StateJournal.SIZE / 2);
+        assertEquals(2, recover());
+        assertEquals(3, records());
+    }
+
+    @Test
+    public void tornRecord() throws IOException {
+        intact(3);
+        corrupt();
+        assertEquals(2, recover());
+        assertEquals(3, records());
+    }
+
+    // a flush writes a whole batch at once, all of it can be lost
+    @Test
+    public void tornBatch() throws IOException {
+        intact(5);
+        corrupt();
+        zeros((StateJournal.MAX_PENDING - 1) * StateJournal.SIZE + 10);
+        assertEquals(4, recover());
+        assertEquals(5, records());
+    }
+
+    // records beyond the recovery window must not be cut off with the broken ones
+    @Test
+    public void nothingIntactNearTheEnd() throws IOException {
+        intact(10);
+        zeros(StateJournal.MAX_RECOVERY_RECORDS * StateJournal.SIZE + 10);
+        assertEquals(-1, recover());
+        assertEquals(10 + StateJournal.MAX_RECOVERY_RECORDS, records());
+    }
+}
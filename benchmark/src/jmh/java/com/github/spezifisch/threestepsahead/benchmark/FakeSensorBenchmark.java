@@ -0,0 +1,43 @@
+package com.github.spezifisch.threestepsahead.benchmark;
+
+import com.github.spezifisch.threestepsahead.utils.FakeSensor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Synthesized sensor events at 400 Hz while walking, as written by the Sensor hook.
+ */
+@State(Scope.Thread)
+public class FakeSensorBenchmark {
+    static final long PERIOD_ns = 2500000L;
+
+    private final FakeSensor fakeSensor = new FakeSensor();
+    private final float[] values = new float[3];
+    private final float[] rotation = new float[5];
+    private long timestamp = 1000000000L;
+    private float bearing = 0;
+
+    @Benchmark
+    public float accelerometer() {
+        fakeSensor.setMotion(bearing, 1.4f);
+        fakeSensor.getAccelerometer(timestamp += PERIOD_ns, values);
+        return values[2];
+    }
+
+    @Benchmark
+    public float gyroscopeTurning() {
+        bearing = (bearing + 0.1f) % 360.0f;
+        fakeSensor.setMotion(bearing, 1.4f);
+        fakeSensor.getGyroscope(timestamp += PERIOD_ns, values);
+        return values[2];
+    }
+
+    @Benchmark
+    public float rotationVector() {
+        fakeSensor.setMotion(bearing, 1.4f);
+        fakeSensor.getRotationVector(timestamp += PERIOD_ns, rotation);
+        return rotation[3];
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.spezifisch.threestepsahead.benchmark;
+
+import com.github.spezifisch.threestepsahead.utils.FixBatch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A batched LocationResult with one fix per second, faked like onLocationResultFusedHook does.
+ */
+@State(Scope.Thread)
+public class FixBatchBenchmark {
+    @Param({"1", "5", "30"})
+    public int size;
+
+    private final FixBatch batch = new FixBatch();
+    private final long key = 0x5eed5eed5eedL;
+    private long time = 1470000000000L;
+    private double latitude = 52.520008;
+
+    @Benchmark
+    public double batch() {
+        time += size * 1000L;
+        latitude += size * 1.26e-5; // 1.4 m/s north
+        batch.begin(key, time, latitude, 13.404954, 0.0f, 1.4f, 5.0f, true);
+
+        double sum = 0;
+        for (int i = size - 1; i >= 0; i--) {
+            batch.at(time - i * 1000L);
+            sum += batch.latitude;
+        }
+        batch.end();
+        return sum;
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.spezifisch.threestepsahead.benchmark;
+
+import com.github.spezifisch.threestepsahead.utils.Geodesy;
+
+/**
+ * Error of the local tangent plane approximation against the spherical formula
+ * and the time both take, for several step sizes and latitudes.
+ * Run with ./gradlew :benchmark:geodesyAccuracy
+ */
+public class GeodesyAccuracy {
+    static final double[] LATITUDES = {0, 30, 45, 60, 75, 85};
+    static final double[] STEPS = {0.084, 1, 10, 100, 1000}; // m, 0.084 is a 50 Hz joystick step
+    static final int ROUNDS = 2000000;
+
+    public static void main(String[] args) {
+        System.out.println("max. error of displaceFast vs. displace (m)");
+        System.out.printf("%8s", "lat\\step");
+        for (double d : STEPS) {
+            System.out.printf("%12s", d + " m");
+        }
+        System.out.println();
+
+        Geodesy.Position exact = new Geodesy.Position(), fast = new Geodesy.Position();
+        for (double lat : LATITUDES) {
+            System.out.printf("%8s", lat + " deg");
+            for (double d : STEPS) {
+                double max = 0;
+                for (int deg = 0; deg < 360; deg += 5) {
+                    double theta = Math.toRadians(deg);
+                    exact.set(lat, 13.4);
+                    fast.set(lat, 13.4);
+                    Geodesy.displace(exact, d, theta);
+                    Geodesy.displaceFast(fast, d, theta);
+                    max = Math.max(max, Geodesy.distance(exact.latitude, exact.longitude,
+                            fast.latitude, fast.longitude));
+                }
+                System.out.printf("%12.2e", max);
+            }
+            System.out.println();
+        }
+
+        // warm up, then time
+        time(false);
+        time(true);
+        System.out.printf("displace:     %.1f ns/step%n", time(false));
+        System.out.printf("displaceFast: %.1f ns/step%n", time(true));
+    }
+
+    private static double time(boolean fast) {
+        Geodesy.Position p = new Geodesy.Position(52.520008, 13.404954);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            double theta = (i & 1023) * 0.006;
+            if (fast) {
+                Geodesy.displaceFast(p, 0.084, theta);
+            } else {
+                Geodesy.displace(p, 0.084, theta);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (Double.isNaN(p.latitude)) {
+            throw new IllegalStateException();
+        }
+        return (double) elapsed / ROUNDS;
+    }
+}
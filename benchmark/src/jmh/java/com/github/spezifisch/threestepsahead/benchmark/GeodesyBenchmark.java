@@ -0,0 +1,73 @@
+package com.github.spezifisch.threestepsahead.benchmark;
+
+import com.github.spezifisch.threestepsahead.utils.Geodesy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Joystick steps (displace) and track replay ticks (Segment).
+ */
+@State(Scope.Thread)
+public class GeodesyBenchmark {
+    private final double[] position = new double[2];
+    private final Geodesy.Position pos = new Geodesy.Position();
+    private final Geodesy.Segment segment = new Geodesy.Segment();
+    private double f = 0;
+
+    @Setup
+    public void setup() {
+        position[0] = 52.520008;
+        position[1] = 13.404954;
+        pos.set(52.520008, 13.404954);
+        segment.set(52.520008, 13.404954, 52.520108, 13.405054);
+    }
+
+    // one 50 Hz joystick step at 4.2 m/s
+    @Benchmark
+    public double[] displace() {
+        Geodesy.displace(position[0], position[1], 0.084, 1.0, position);
+        return position;
+    }
+
+    @Benchmark
+    public Geodesy.Position displacePosition() {
+        Geodesy.displace(pos, 0.084, 1.0);
+        return pos;
+    }
+
+    // local tangent plane, see GeodesyAccuracy for its error
+    @Benchmark
+    public Geodesy.Position displaceFast() {
+        Geodesy.displaceFast(pos, 0.084, 1.0);
+        return pos;
+    }
+
+    @Benchmark
+    public double distance() {
+        return Geodesy.distance(52.520008, 13.404954, 52.520108, 13.405054);
+    }
+
+    @Benchmark
+    public double bearing() {
+        return Geodesy.bearing(52.520008, 13.404954, 52.520108, 13.405054);
+    }
+
+    @Benchmark
+    public double segmentSet() {
+        segment.set(52.520008, 13.404954, 52.520108, 13.405054);
+        return segment.length;
+    }
+
+    @Benchmark
+    public double segmentInterpolate() {
+        f += 0.001;
+        if (f > 1.0) {
+            f = 0;
+        }
+        segment.interpolate(f);
+        return segment.latitude;
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.spezifisch.threestepsahead.benchmark;
+
+import com.github.spezifisch.threestepsahead.utils.CounterRandom;
+import com.github.spezifisch.threestepsahead.utils.LocationNoise;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Noise added by the hooks to every real fix. The reseeded Random is what the hooks did before.
+ */
+@State(Scope.Thread)
+public class LocationNoiseBenchmark {
+    private final LocationNoise noise = new LocationNoise();
+    private final Random rand = new Random(0);
+    private final long key = 0x5eed5eed5eedL;
+    private long time = 1470000000000L;
+
+    @Benchmark
+    public double apply() {
+        noise.apply(key, time += 1000, 52.520008, 13.404954, 123.4f, 1.4f, 5.0f);
+        return noise.latitude;
+    }
+
+    @Benchmark
+    public double counterGaussian() {
+        return CounterRandom.nextGaussian(key, time++);
+    }
+
+    @Benchmark
+    public double reseededRandomGaussian() {
+        rand.setSeed(time++);
+        return rand.nextGaussian();
+    }
+}
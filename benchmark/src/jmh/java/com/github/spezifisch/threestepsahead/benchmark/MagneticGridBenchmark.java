@@ -0,0 +1,50 @@
+package com.github.spezifisch.threestepsahead.benchmark;
+
+import com.github.spezifisch.threestepsahead.utils.MagneticGrid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Magnetometer samples at 400 Hz while walking. GeomagneticField isn't available outside
+ * Android, a tilted dipole stands in as full model, see fullModel for its cost.
+ */
+@State(Scope.Thread)
+public class MagneticGridBenchmark {
+    static final MagneticGrid.Model DIPOLE = new MagneticGrid.Model() {
+        final double poleLat = Math.toRadians(80.6), poleLon = Math.toRadians(-72.7);
+        static final double B0 = 30000; // nT
+
+        @Override
+        public void evaluate(double lat, double lon, double alt, long time, double[] out) {
+            double phi = Math.toRadians(lat), dLam = poleLon - Math.toRadians(lon);
+            double cosTheta = Math.sin(phi) * Math.sin(poleLat) + Math.cos(phi) * Math.cos(poleLat) * Math.cos(dLam);
+            double h = B0 * Math.sqrt(1 - cosTheta * cosTheta);
+            double declination = Math.atan2(Math.sin(dLam) * Math.cos(poleLat),
+                    Math.cos(phi) * Math.sin(poleLat) - Math.sin(phi) * Math.cos(poleLat) * Math.cos(dLam));
+            out[0] = h * Math.cos(declination);
+            out[1] = h * Math.sin(declination);
+            out[2] = 2 * B0 * cosTheta;
+        }
+    };
+
+    private final MagneticGrid grid = new MagneticGrid(DIPOLE);
+    private final double[] field = new double[3];
+    private long time = 1790000000000L;
+    private double latitude = 52.520008;
+
+    @Benchmark
+    public float gridWalking() {
+        latitude += 3.5e-8; // 1.4 m/s at 400 Hz
+        grid.update(latitude, 13.404954, 34.0, time += 3);
+        return grid.north;
+    }
+
+    @Benchmark
+    public double fullModel() {
+        latitude += 3.5e-8;
+        DIPOLE.evaluate(latitude, 13.404954, 34.0, time += 3, field);
+        return field[0];
+    }
+}
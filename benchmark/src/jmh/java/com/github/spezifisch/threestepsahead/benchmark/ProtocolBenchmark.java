@@ -0,0 +1,48 @@
+package com.github.spezifisch.threestepsahead.benchmark;
+
+import com.github.spezifisch.threestepsahead.Protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * V1 location payload encode/decode, as done by IPC.SettingsClient for every SET_POS.
+ */
+@State(Scope.Thread)
+public class ProtocolBenchmark {
+    private byte[] buffer;
+    private byte[] encoded;
+    private Protocol.LocationData data;
+    private double latitude = 52.520008;
+
+    @Setup
+    public void setup() {
+        buffer = new byte[Protocol.LOCATION_SIZE];
+        encoded = Protocol.encodeLocation(new byte[Protocol.LOCATION_SIZE],
+                52.520008, 13.404954, 34.0, 123.4f, 1.4f, 5.0f, 1470000000000L);
+        data = new Protocol.LocationData();
+    }
+
+    // what sendLocation does, one array per message
+    @Benchmark
+    public byte[] encodeLocation() {
+        latitude += 1e-7;
+        return Protocol.encodeLocation(new byte[Protocol.LOCATION_SIZE],
+                latitude, 13.404954, 34.0, 123.4f, 1.4f, 5.0f, 1470000000000L);
+    }
+
+    @Benchmark
+    public byte[] encodeLocationReused() {
+        latitude += 1e-7;
+        return Protocol.encodeLocation(buffer,
+                latitude, 13.404954, 34.0, 123.4f, 1.4f, 5.0f, 1470000000000L);
+    }
+
+    @Benchmark
+    public double decodeLocation() {
+        Protocol.decodeLocation(encoded, data);
+        return data.latitude;
+    }
+}
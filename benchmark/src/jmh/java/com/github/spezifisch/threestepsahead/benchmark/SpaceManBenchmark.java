@@ -0,0 +1,58 @@
+package com.github.spezifisch.threestepsahead.benchmark;
+
+import com.github.spezifisch.threestepsahead.utils.EphemerisCache;
+import com.github.spezifisch.threestepsahead.utils.SpaceMan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * TLE parsing and satellite positions with the GPS test data of the app.
+ */
+@State(Scope.Thread)
+public class SpaceManBenchmark {
+    private static final SpaceMan.Logger QUIET = new SpaceMan.Logger() {
+        @Override
+        public void log(String s) {
+        }
+    };
+
+    private String tles;
+    private SpaceMan spaceMan;
+    private long time = 1471500000000L;
+
+    @Setup
+    public void setup() {
+        tles = SpaceMan.readFile(SpaceManBenchmark.class.getResourceAsStream("/gps_ops_test1.txt"));
+        spaceMan = new SpaceMan();
+        spaceMan.setLogger(QUIET);
+        spaceMan.parseTLE(tles);
+        spaceMan.setGroundStationPosition(52.520008, 13.404954, 34.0);
+    }
+
+    @Benchmark
+    public int parseTLE() {
+        spaceMan.parseTLE(tles);
+        return spaceMan.getTLECount();
+    }
+
+    // one GpsStatus update per second, grid samples are only propagated every 30 s
+    @Benchmark
+    public List<SpaceMan.MyGpsSatellite> calculatePositions() {
+        spaceMan.setNow(time += 1000);
+        spaceMan.calculatePositions();
+        return spaceMan.getGpsSatellites();
+    }
+
+    // every call starts a new grid, so both samples are propagated
+    @Benchmark
+    public List<SpaceMan.MyGpsSatellite> calculatePositionsUncached() {
+        spaceMan.setNow(time += EphemerisCache.SPAN_MS + EphemerisCache.STEP_MS);
+        spaceMan.calculatePositions();
+        return spaceMan.getGpsSatellites();
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.spezifisch.threestepsahead.benchmark;
+
+import com.github.spezifisch.threestepsahead.utils.Track;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * A 100k point walk: adding a point, and going through the path for one frame like
+ * TrackOverlay.draw() does, without the canvas.
+ */
+@State(Scope.Thread)
+public class TrackBenchmark {
+    static final int POINTS = 100000;
+
+    @Param({"12", "16", "19"})
+    public int zoom;
+
+    private final Track track = new Track();
+    private double latitude = 52.520008, longitude = 13.404954, bearing = 0;
+    private final Random random = new Random(42);
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < POINTS; i++) {
+            walk();
+        }
+    }
+
+    // one step per second, 1.4 m/s, slowly turning
+    private void walk() {
+        bearing += random.nextGaussian() * 0.05;
+        latitude += Math.cos(bearing) * 1.26e-5;
+        longitude += Math.sin(bearing) * 2.07e-5;
+        track.add(latitude, longitude);
+    }
+
+    @Benchmark
+    public void add() {
+        walk();
+    }
+
+    @Benchmark
+    public long frame() {
+        final int shift = Track.PROJECTED_ZOOM - zoom;
+        final int n = track.beginPath(zoom);
+        long sum = 0;
+        int x0 = track.pathX(0) >> shift, y0 = track.pathY(0) >> shift;
+        for (int i = 1; i < n; i++) {
+            final int x1 = track.pathX(i) >> shift, y1 = track.pathY(i) >> shift;
+            if (x1 != x0 || y1 != y0) {
+                sum += x1 - x0 + y1 - y0;
+                x0 = x1;
+                y0 = y1;
+            }
+        }
+        return sum;
+    }
+}
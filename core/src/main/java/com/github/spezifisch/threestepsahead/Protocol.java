@@ -0,0 +1,135 @@
+package com.github.spezifisch.threestepsahead;
+
+import java.nio.charset.Charset;
+
+/**
+ * Compact binary payloads for IPC messages.
+ *
+ * Legacy messages carry a Bundle with one string-keyed entry per field plus a "source" tag.
+ * From V1 on a message carries the protocol version in arg1, a numeric source id in arg2 and
+ * all fields packed into a single byte[] (big endian) under KEY. The "source" tag is only sent
+ * once with CONNECTED, the master maps source ids back to tags when it relays messages to legacy
+ * clients. The version is negotiated when a client connects, so old hook builds keep getting
+ * legacy Bundles.
+ */
+public class Protocol {
+    // versions
+    public static final int LEGACY = 0;
+    public static final int V1 = 1;
+    public static final int VERSION = V1;
+
+    // Bundle key of the payload
+    public static final String KEY = "p";
+
+    // V1 payload sizes
+    public static final int LOCATION_SIZE = 44;
+    public static final int STATE_SIZE = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static class LocationData {
+        public double latitude, longitude, altitude;
+        public float bearing, speed, accuracy;
+        public long time;
+    }
+
+    public static int negotiate(int clientVersion) {
+        return Math.max(LEGACY, Math.min(clientVersion, VERSION));
+    }
+
+    // pack capabilities and protocol version into CONNECTED's arg1
+    public static int packConnect(int caps, int version) {
+        return (caps & 0xffff) | (version << 16);
+    }
+
+    public static int connectCaps(int arg1) {
+        return arg1 & 0xffff;
+    }
+
+    public static int connectVersion(int arg1) {
+        return arg1 >>> 16;
+    }
+
+    // numeric replacement for the "source" tag
+    public static int sourceId(String tag) {
+        return tag.hashCode();
+    }
+
+    /** Location */
+    public static byte[] encodeLocation(LocationData l) {
+        return encodeLocation(new byte[LOCATION_SIZE], l.latitude, l.longitude, l.altitude,
+                l.bearing, l.speed, l.accuracy, l.time);
+    }
+
+    public static byte[] encodeLocation(byte[] out, double latitude, double longitude, double altitude,
+                                        float bearing, float speed, float accuracy, long time) {
+        putLong(out, 0, Double.doubleToRawLongBits(latitude));
+        putLong(out, 8, Double.doubleToRawLongBits(longitude));
+        putLong(out, 16, Double.doubleToRawLongBits(altitude));
+        putInt(out, 24, Float.floatToRawIntBits(bearing));
+        putInt(out, 28, Float.floatToRawIntBits(speed));
+        putInt(out, 32, Float.floatToRawIntBits(accuracy));
+        putLong(out, 36, time);
+        return out;
+    }
+
+    public static boolean decodeLocation(byte[] in, LocationData out) {
+        if (in == null || in.length < LOCATION_SIZE) {
+            return false;
+        }
+        out.latitude = Double.longBitsToDouble(getLong(in, 0));
+        out.longitude = Double.longBitsToDouble(getLong(in, 8));
+        out.altitude = Double.longBitsToDouble(getLong(in, 16));
+        out.bearing = Float.intBitsToFloat(getInt(in, 24));
+        out.speed = Float.intBitsToFloat(getInt(in, 28));
+        out.accuracy = Float.intBitsToFloat(getInt(in, 32));
+        out.time = getLong(in, 36);
+        return true;
+    }
+
+    /** State */
+    public static byte[] encodeState(boolean enabled) {
+        return new byte[] { (byte) (enabled ? 1 : 0) };
+    }
+
+    public static boolean decodeState(byte[] in, boolean defValue) {
+        if (in == null || in.length < STATE_SIZE) {
+            return defValue;
+        }
+        return in[0] != 0;
+    }
+
+    /** TLE */
+    public static byte[] encodeTLE(String tle) {
+        return tle.getBytes(UTF8);
+    }
+
+    public static String decodeTLE(byte[] in) {
+        if (in == null) {
+            return "";
+        }
+        return new String(in, UTF8);
+    }
+
+    /** helpers */
+    static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    static void putLong(byte[] b, int off, long v) {
+        putInt(b, off, (int) (v >>> 32));
+        putInt(b, off + 4, (int) v);
+    }
+
+    static int getInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) |
+                ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    static long getLong(byte[] b, int off) {
+        return ((long) getInt(b, off) << 32) | (getInt(b, off + 4) & 0xffffffffL);
+    }
+}
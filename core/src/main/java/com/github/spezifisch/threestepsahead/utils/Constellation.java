@@ -0,0 +1,120 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * GNSS constellations and the satellite numbering used by Android.
+ *
+ * Types match GnssStatus.CONSTELLATION_*. GpsStatus only knows a single PRN range,
+ * so other constellations are mapped like the platform's GPS HAL does it:
+ * SBAS 120-151 -> 33-64, GLONASS slot + 64, QZSS 193-200, BeiDou + 200, Galileo + 300.
+ */
+public class Constellation {
+    public static final int UNKNOWN = 0;
+    public static final int GPS = 1;
+    public static final int SBAS = 2;
+    public static final int GLONASS = 3;
+    public static final int QZSS = 4;
+    public static final int BEIDOU = 5;
+    public static final int GALILEO = 6;
+
+    // SBAS PRNs that fit the legacy range 33-64, higher ones would collide with GLONASS
+    static final int SBAS_FIRST = 120;
+    static final int SBAS_LAST = 151;
+
+    // "(PRN 13)", "(PRN E11)", "(C08)", "(R07)", "(QZSS/PRN 193)"
+    private static final Pattern SVID = Pattern.compile("\\((?:[A-Z]+/)?(?:PRN\\s*)?([A-Z]?)(\\d+)\\)");
+
+    /**
+     * Parsed satellite identity from a TLE name.
+     */
+    public static class Id {
+        public int constellation = UNKNOWN;
+        public int svid;
+    }
+
+    /**
+     * Determine constellation and svid from a celestrak TLE name.
+     * @return false if the name isn't recognised. GLONASS names carry no slot number,
+     *         svid is 0 then and the caller assigns one.
+     */
+    public static boolean parse(String name, Id out) {
+        String n = name.trim().toUpperCase();
+        Matcher m = SVID.matcher(n);
+        String prefix = "";
+        int number = 0;
+        if (m.find()) {
+            prefix = m.group(1);
+            number = Integer.parseInt(m.group(2));
+        }
+
+        out.svid = number;
+        if (prefix.equals("E") || n.startsWith("GSAT") || n.startsWith("GALILEO")) {
+            out.constellation = GALILEO;
+        } else if (prefix.equals("C") || n.startsWith("BEIDOU")) {
+            out.constellation = BEIDOU;
+        } else if (prefix.equals("J") || n.startsWith("QZS")) {
+            out.constellation = QZSS;
+            if (out.svid > 0 && out.svid < 193) {
+                out.svid += 192; // J01 -> 193
+            }
+        } else if (prefix.equals("R")) {
+            out.constellation = GLONASS;
+        } else if (n.startsWith("COSMOS") || n.startsWith("GLONASS")) {
+            // number in parentheses is the GLONASS number, not the slot
+            out.constellation = GLONASS;
+            out.svid = 0;
+        } else if (number >= SBAS_FIRST && number <= SBAS_LAST) {
+            out.constellation = SBAS;
+        } else if (n.startsWith("GPS") || n.startsWith("NAVSTAR") || (prefix.equals("G") && number > 0)) {
+            out.constellation = GPS;
+        } else {
+            out.constellation = UNKNOWN;
+        }
+
+        return out.constellation != UNKNOWN && (out.svid > 0 || out.constellation == GLONASS);
+    }
+
+    /**
+     * PRN as reported by the legacy GpsStatus API.
+     */
+    public static int toLegacyPrn(int constellation, int svid) {
+        switch (constellation) {
+            case GPS:
+                return svid;
+            case SBAS:
+                return svid - 87;
+            case GLONASS:
+                return svid + 64;
+            case QZSS:
+                return svid;
+            case BEIDOU:
+                return svid + 200;
+            case GALILEO:
+                return svid + 300;
+            default:
+                return svid;
+        }
+    }
+
+    /**
+     * Inverse of toLegacyPrn, used to classify satellites of the real device.
+     */
+    public static int fromLegacyPrn(int prn) {
+        if (prn >= 1 && prn <= 32) {
+            return GPS;
+        } else if (prn >= 33 && prn <= 64) {
+            return SBAS;
+        } else if (prn >= 65 && prn <= 96) {
+            return GLONASS;
+        } else if (prn >= 193 && prn <= 200) {
+            return QZSS;
+        } else if (prn >= 201 && prn <= 263) {
+            return BEIDOU;
+        } else if (prn >= 301 && prn <= 336) {
+            return GALILEO;
+        }
+        return UNKNOWN;
+    }
+}
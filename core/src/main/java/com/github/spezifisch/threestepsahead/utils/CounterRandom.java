@@ -0,0 +1,50 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+/**
+ * Stateless random numbers: the value for (key, counter) is the same every time and in every
+ * process, so hooked apps can derive identical noise without sharing a Random.
+ *
+ * Values are SplitMix64 outputs of the stream seeded with key. Callers number their draws,
+ * draw n owns stream positions 2 * n and 2 * n + 1 whatever the distribution, so distinct
+ * draws never share a position. StrictMath makes gaussians bit-identical across VMs.
+ */
+public final class CounterRandom {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+    private CounterRandom() {
+    }
+
+    // SplitMix64 finalizer
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // first stream position of a draw
+    static long position(long draw) {
+        return 2 * draw;
+    }
+
+    private static double uniformAt(long key, long position) {
+        return (mix(key + (position + 1) * GOLDEN_GAMMA) >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * Uniform in [0, 1). Uses the first position of the draw.
+     */
+    public static double nextUniform(long key, long draw) {
+        return uniformAt(key, position(draw));
+    }
+
+    /**
+     * Standard normal (Box-Muller). Uses both positions of the draw.
+     */
+    public static double nextGaussian(long key, long draw) {
+        final long p = position(draw);
+        double u1 = 1.0 - uniformAt(key, p); // (0, 1], log must not see 0
+        double u2 = uniformAt(key, p + 1);
+        return StrictMath.sqrt(-2.0 * StrictMath.log(u1)) * StrictMath.cos(2.0 * Math.PI * u2);
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import uk.me.g4dpz.satellite.GroundStationPosition;
+import uk.me.g4dpz.satellite.SatPos;
+import uk.me.g4dpz.satellite.Satellite;
+
+/**
+ * Satellite positions (ECEF, km) precomputed on a time grid and linearly interpolated.
+ *
+ * GPS satellites move about 0.26° of their orbit in one 30 s step, so the chord deviates from the
+ * orbit by less than 70 m. Seen from the ground that's an angle below 0.001°.
+ *
+ * Grid samples are propagated on demand, all satellites of a sample in parallel. So a position
+ * query needs at most two samples to be propagated, once every 30 s.
+ */
+public class EphemerisCache {
+    public static final long STEP_MS = 30 * 1000;
+    public static final long SPAN_MS = 60 * 60 * 1000;
+    static final int SAMPLES = (int) (SPAN_MS / STEP_MS) + 1;
+
+    // WGS84
+    static final double EARTH_A = 6378.137; // km
+    static final double EARTH_F = 1.0 / 298.257223563;
+    static final double EARTH_E2 = EARTH_F * (2.0 - EARTH_F);
+
+    // below this many satellites per sample threads aren't worth it
+    static final int PARALLEL_MIN = 16;
+
+    // predict4java computes lat/lon/alt relative to any station, use a fixed one
+    private static final GroundStationPosition ORIGIN = new GroundStationPosition(0, 0, 0);
+
+    private List<Satellite> satellites;
+    private long start = 0;     // time of first sample, ms
+    private int count = 0;      // number of satellites
+    private double[] ecef = new double[0]; // [sat][sample][x, y, z]
+    private final boolean[] computed = new boolean[SAMPLES];
+
+    // propagation workers of all caches in the process, created on first use
+    private static ExecutorService executor;
+    private final int threads;
+
+    public EphemerisCache() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public EphemerisCache(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public boolean covers(long time) {
+        return count > 0 && time >= start && time <= start + SPAN_MS;
+    }
+
+    public void invalidate() {
+        count = 0;
+    }
+
+    /**
+     * Start a new grid for the next SPAN_MS at the grid point before time. Nothing is propagated yet.
+     * Every satellite is only accessed by one thread at a time, predict4java objects aren't thread-safe.
+     */
+    public void reset(List<Satellite> satellites, long time) {
+        this.satellites = satellites;
+        int n = satellites.size();
+        if (ecef.length < n * SAMPLES * 3) {
+            ecef = new double[n * SAMPLES * 3];
+        }
+        start = time - (time % STEP_MS);
+        for (int k = 0; k < SAMPLES; k++) {
+            computed[k] = false;
+        }
+        count = n;
+    }
+
+    /**
+     * Make sure the samples around time are propagated.
+     */
+    public void prepare(long time) {
+        int k = sampleIndex(time);
+        ensureSample(k);
+        ensureSample(k + 1);
+    }
+
+    private int sampleIndex(long time) {
+        long k = (time - start) / STEP_MS;
+        return (int) Math.max(0, Math.min(k, SAMPLES - 2));
+    }
+
+    private void ensureSample(final int k) {
+        if (computed[k]) {
+            return;
+        }
+
+        if (threads == 1 || count < PARALLEL_MIN) {
+            propagate(k, 0, count);
+        } else {
+            // one chunk of satellites per thread
+            List<Callable<Void>> tasks = new ArrayList<>(threads);
+            int chunk = (count + threads - 1) / threads;
+            for (int from = 0; from < count; from += chunk) {
+                final int f = from, to = Math.min(count, from + chunk);
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        propagate(k, f, to);
+                        return null;
+                    }
+                });
+            }
+
+            try {
+                for (Future<Void> future : getExecutor().invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (Exception e) {
+                // fall back to doing it here
+                propagate(k, 0, count);
+            }
+        }
+        computed[k] = true;
+    }
+
+    private void propagate(int k, int from, int to) {
+        Date date = new Date(start + k * STEP_MS);
+        double[] tmp = new double[3];
+
+        for (int i = from; i < to; i++) {
+            SatPos p = satellites.get(i).getPosition(ORIGIN, date);
+            geodeticToEcef(p.getLatitude(), p.getLongitude(), p.getAltitude(), tmp);
+
+            int off = (i * SAMPLES + k) * 3;
+            ecef[off] = tmp[0];
+            ecef[off + 1] = tmp[1];
+            ecef[off + 2] = tmp[2];
+        }
+    }
+
+    // daemon threads, one per CPU, live as long as the process
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "EphemerisCache");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Interpolated ECEF position (km) of satellite i at time (clamped to the cached span).
+     * Call prepare(time) first.
+     */
+    public void position(int i, long time, double[] out) {
+        double t = (double) (time - start) / STEP_MS;
+        if (t < 0) {
+            t = 0;
+        } else if (t > SAMPLES - 1) {
+            t = SAMPLES - 1;
+        }
+        int k = Math.min((int) t, SAMPLES - 2);
+        double f = t - k;
+
+        int off = (i * SAMPLES + k) * 3;
+        out[0] = ecef[off] + (ecef[off + 3] - ecef[off]) * f;
+        out[1] = ecef[off + 1] + (ecef[off + 4] - ecef[off + 1]) * f;
+        out[2] = ecef[off + 2] + (ecef[off + 5] - ecef[off + 2]) * f;
+    }
+
+    /**
+     * lat/lon in radians, alt in km -> ECEF in km
+     */
+    public static void geodeticToEcef(double lat, double lon, double alt, double[] out) {
+        double sinLat = Math.sin(lat), cosLat = Math.cos(lat);
+        double n = EARTH_A / Math.sqrt(1.0 - EARTH_E2 * sinLat * sinLat);
+        out[0] = (n + alt) * cosLat * Math.cos(lon);
+        out[1] = (n + alt) * cosLat * Math.sin(lon);
+        out[2] = (n * (1.0 - EARTH_E2) + alt) * sinLat;
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+/**
+ * Synthesizes sensor readings of a phone carried flat in front of a walking user, top pointing
+ * in the direction of travel, driven by the simulated speed and bearing.
+ *
+ * Step patterns come from precomputed one-cycle tables, played at a cadence that depends on
+ * speed. Heading follows the bearing with a short lag, its rate is what the gyroscope sees.
+ * Values are written into the dispatched arrays, nothing is allocated per event.
+ *
+ * Axes are Android's device frame: x right, y forward, z up out of the screen.
+ */
+public class FakeSensor {
+    public static final float GRAVITY = 9.80665f;   // m/s^2
+
+    static final int TABLE_SIZE = 256;                  // power of 2
+    static final int NOISE_SIZE = 1024;                 // power of 2
+    static final float MIN_WALKING_SPEED = 0.2f;        // m/s, standing still below
+    static final float HEADING_TIME_CONSTANT = 0.5f;    // s
+    static final float MAX_DT = 0.1f;                   // s, longer gaps don't move the state further
+
+    // one step cycle, normalized to amplitude 1
+    static final float[] STEP_VERTICAL = new float[TABLE_SIZE];   // heel strike peak, then push-off
+    static final float[] STEP_FORWARD = new float[TABLE_SIZE];    // braking at heel strike, then push
+    static final float[] SINE = new float[TABLE_SIZE];
+    static final float[] COSINE = new float[TABLE_SIZE];
+    static final float[] NOISE = new float[NOISE_SIZE];           // standard normal
+
+    static {
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            double phi = 2.0 * Math.PI * i / TABLE_SIZE;
+            STEP_VERTICAL[i] = (float) ((Math.cos(phi) + 0.4 * Math.cos(2 * phi + 0.5) + 0.15 * Math.cos(3 * phi)) / 1.4);
+            STEP_FORWARD[i] = (float) ((-Math.sin(phi) + 0.3 * Math.sin(2 * phi)) / 1.2);
+            SINE[i] = (float) Math.sin(phi);
+            COSINE[i] = (float) Math.cos(phi);
+        }
+        for (int i = 0; i < NOISE_SIZE; i++) {
+            NOISE[i] = (float) CounterRandom.nextGaussian(0x5e5504L, i);
+        }
+    }
+
+    // sensor noise, standard deviation
+    static final float ACCEL_NOISE = 0.02f;     // m/s^2
+    static final float GYRO_NOISE = 0.002f;     // rad/s
+    static final float MAG_NOISE = 0.3f;        // uT
+
+    // simulated motion
+    private float speed;            // m/s
+    private double targetHeading;   // rad, CW from north
+
+    // earth magnetic field in uT, world frame
+    private float magNorth = 20.0f, magEast = 0.0f, magDown = 45.0f;
+
+    // state at the last event
+    private long lastTimestamp = 0;     // ns
+    private double heading;             // rad, CW from north
+    private float yawRate;              // rad/s, CW
+    private float sinHeading = 0, cosHeading = 1;
+    private float stepPhase;            // [0, 2) cycles, two steps per sway cycle
+    private float stepAmplitude;        // m/s^2 vertical
+    private int noiseIndex;
+
+    /**
+     * @param bearing deg, CW from north
+     * @param speed m/s
+     */
+    public void setMotion(float bearing, float speed) {
+        this.targetHeading = Math.toRadians(bearing);
+        this.speed = speed;
+    }
+
+    /**
+     * Earth field at the simulated location in uT.
+     */
+    public void setMagneticField(float north, float east, float down) {
+        magNorth = north;
+        magEast = east;
+        magDown = down;
+    }
+
+    // move the state to the time of an event, different sensors share it
+    private void advance(long timestamp) {
+        long dtNs = timestamp - lastTimestamp;
+        if (dtNs <= 0) {
+            return; // same or older event, keep state
+        }
+        boolean first = lastTimestamp == 0;
+        lastTimestamp = timestamp;
+        if (first) {
+            heading = targetHeading;
+            updateHeadingTrig();
+            return;
+        }
+        float dt = Math.min(dtNs * 1e-9f, MAX_DT);
+
+        // heading follows bearing, first order lag
+        double diff = targetHeading - heading;
+        if (diff > Math.PI) {
+            diff -= 2 * Math.PI;
+        } else if (diff < -Math.PI) {
+            diff += 2 * Math.PI;
+        }
+        double turn = diff * Math.min(1.0f, dt / HEADING_TIME_CONSTANT);
+        heading += turn;
+        if (heading >= 2 * Math.PI) {
+            heading -= 2 * Math.PI;
+        } else if (heading < 0) {
+            heading += 2 * Math.PI;
+        }
+        yawRate = (float) (turn / dt);
+        updateHeadingTrig();
+
+        // cadence and step strength grow with speed
+        if (speed >= MIN_WALKING_SPEED) {
+            float cadence = Math.min(3.0f, 1.0f + 0.6f * speed);   // steps/s, 1.8 at 1.4 m/s
+            stepPhase += cadence * dt;
+            if (stepPhase >= 2.0f) {
+                stepPhase -= 2.0f;
+            }
+            stepAmplitude = Math.min(6.0f, 1.5f * speed);
+        } else {
+            // let the last step fade out
+            stepAmplitude *= Math.max(0.0f, 1.0f - 4.0f * dt);
+        }
+    }
+
+    private void updateHeadingTrig() {
+        sinHeading = (float) Math.sin(heading);
+        cosHeading = (float) Math.cos(heading);
+    }
+
+    private float noise(float sigma) {
+        return NOISE[noiseIndex++ & (NOISE_SIZE - 1)] * sigma;
+    }
+
+    private int stepIndex() {
+        return (int) (stepPhase * TABLE_SIZE) & (TABLE_SIZE - 1);
+    }
+
+    private int swayIndex() {
+        return (int) (stepPhase * (TABLE_SIZE / 2)) & (TABLE_SIZE - 1);
+    }
+
+    public void getAccelerometer(long timestamp, float[] values) {
+        advance(timestamp);
+        linearAcceleration(values);
+        values[2] += GRAVITY;
+    }
+
+    public void getLinearAcceleration(long timestamp, float[] values) {
+        advance(timestamp);
+        linearAcceleration(values);
+    }
+
+    private void linearAcceleration(float[] values) {
+        int step = stepIndex();
+        float a = stepAmplitude;
+        values[0] = 0.25f * a * SINE[swayIndex()] + noise(ACCEL_NOISE);
+        values[1] = 0.5f * a * STEP_FORWARD[step] + noise(ACCEL_NOISE);
+        values[2] = a * STEP_VERTICAL[step] + noise(ACCEL_NOISE);
+    }
+
+    public void getGravity(long timestamp, float[] values) {
+        advance(timestamp);
+        values[0] = 0;
+        values[1] = 0;
+        values[2] = GRAVITY;
+    }
+
+    public void getGyroscope(long timestamp, float[] values) {
+        advance(timestamp);
+        // slight pitch and roll with each step, yaw CCW positive
+        float a = stepAmplitude * 0.03f;
+        values[0] = a * COSINE[stepIndex()] + noise(GYRO_NOISE);
+        values[1] = 0.5f * a * COSINE[swayIndex()] + noise(GYRO_NOISE);
+        values[2] = -yawRate + noise(GYRO_NOISE);
+    }
+
+    public void getMagneticField(long timestamp, float[] values) {
+        advance(timestamp);
+        // rotate horizontal field into device frame, y along heading
+        values[0] = -magNorth * sinHeading + magEast * cosHeading + noise(MAG_NOISE);
+        values[1] = magNorth * cosHeading + magEast * sinHeading + noise(MAG_NOISE);
+        values[2] = -magDown + noise(MAG_NOISE);
+    }
+
+    /**
+     * Rotation about z by -heading as unit quaternion (x, y, z[, w]), so the azimuth equals the heading.
+     * Heading is relative to true north, as for the magnetic field.
+     */
+    public void getRotationVector(long timestamp, float[] values) {
+        advance(timestamp);
+        // half angle from the cached sin/cos of the heading
+        float c = (float) Math.sqrt(Math.max(0.0f, (1.0f + cosHeading) * 0.5f));
+        float s = (float) Math.sqrt(Math.max(0.0f, (1.0f - cosHeading) * 0.5f));
+        if (sinHeading < 0) {
+            s = -s;
+        }
+        values[0] = 0;
+        values[1] = 0;
+        values[2] = -s;
+        if (values.length > 3) {
+            values[3] = c;
+        }
+    }
+}
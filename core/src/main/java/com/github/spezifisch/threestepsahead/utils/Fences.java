@@ -0,0 +1,108 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences for the seqlocks around records shared between processes (SharedLocation,
+ * SettingsSnapshot). A plain volatile access is only release or acquire, it doesn't keep
+ * plain stores after it from moving before it, or plain loads before it from moving after it.
+ *
+ * Unsafe.storeFence()/loadFence() are used where they exist (Java 8, Android 7). Before that
+ * a volatile store followed by a volatile load stands in: ART emits a full barrier (dmb ish)
+ * after each volatile store and load, which covers both directions. That is an assumption
+ * about ART on ARM and x86, the JMM alone doesn't promise it.
+ *
+ * Which one is decided once when the class is loaded, the fences themselves are direct calls.
+ */
+public final class Fences {
+    interface Fence {
+        void storeFence();
+
+        void loadFence();
+    }
+
+    private static final Fence fence;
+
+    static {
+        Fence f;
+        try {
+            f = new UnsafeFence();
+            f.storeFence(); // throws if the methods are missing
+            f.loadFence();
+        } catch (Throwable e) {
+            f = new VolatileFence();
+        }
+        fence = f;
+    }
+
+    private Fences() {
+    }
+
+    /**
+     * Stores before the fence are visible before stores after it.
+     */
+    public static void storeFence() {
+        fence.storeFence();
+    }
+
+    /**
+     * Loads before the fence complete before loads after it.
+     */
+    public static void loadFence() {
+        fence.loadFence();
+    }
+
+    /**
+     * @return true if Unsafe fences are available, false if the volatile fallback is used
+     */
+    public static boolean hasUnsafeFences() {
+        return fence instanceof UnsafeFence;
+    }
+
+    // only loaded if sun.misc.Unsafe can be reached
+    static final class UnsafeFence implements Fence {
+        private final sun.misc.Unsafe unsafe;
+
+        UnsafeFence() throws ReflectiveOperationException {
+            Field f;
+            try {
+                f = sun.misc.Unsafe.class.getDeclaredField("theUnsafe");
+            } catch (NoSuchFieldException e) {
+                f = sun.misc.Unsafe.class.getDeclaredField("THE_ONE"); // older Android
+            }
+            f.setAccessible(true);
+            unsafe = (sun.misc.Unsafe) f.get(null);
+        }
+
+        @Override
+        public void storeFence() {
+            unsafe.storeFence();
+        }
+
+        @Override
+        public void loadFence() {
+            unsafe.loadFence();
+        }
+    }
+
+    // volatile store then load, see class comment
+    static final class VolatileFence implements Fence {
+        private volatile int barrier;
+
+        @Override
+        public void storeFence() {
+            full();
+        }
+
+        @Override
+        public void loadFence() {
+            full();
+        }
+
+        private void full() {
+            barrier = 0;
+            //noinspection UnusedAssignment
+            int b = barrier;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+/**
+ * Fake positions for a batch of real fixes, at the timestamps of the real ones.
+ *
+ * The simulated trajectory is known at the end of the previous batch (anchor) and now. Fixes
+ * in between are placed on the great circle between both, proportional to time. Fixes before
+ * the anchor, or all of them if there is none, are dead reckoned back from now with the current
+ * speed and bearing. Results are stored in the public fields, nothing is allocated.
+ */
+public class FixBatch {
+    // don't interpolate over longer gaps, the path in between is unknown anyway
+    static final long MAX_ANCHOR_AGE_ms = 60000;
+
+    public double latitude, longitude; // deg
+    public float bearing;              // deg
+    public float speed;                // m/s
+
+    private final Geodesy.Segment segment = new Geodesy.Segment();
+    private final Geodesy.Position position = new Geodesy.Position();
+    private final LocationNoise noise = new LocationNoise();
+
+    // end of the last batch, noise-free
+    private boolean hasAnchor = false;
+    private long anchorTime;
+    private double anchorLatitude, anchorLongitude;
+
+    // current batch
+    private boolean interpolate;
+    private float segmentBearing, segmentSpeed;
+    private long key, endTime;
+    private double endLatitude, endLongitude;
+    private float endBearing, endSpeed, accuracy;
+    private boolean addNoise;
+
+    /**
+     * Start a batch whose newest fix is at endTime (ms), with the simulated state at that time.
+     * @param key session key for LocationNoise
+     * @param addNoise false to get the plain trajectory
+     */
+    public void begin(long key, long endTime, double lat, double lon, float bearing, float speed,
+                      float accuracy, boolean addNoise) {
+        this.key = key;
+        this.endTime = endTime;
+        this.endLatitude = lat;
+        this.endLongitude = lon;
+        this.endBearing = bearing;
+        this.endSpeed = speed;
+        this.accuracy = accuracy;
+        this.addNoise = addNoise;
+
+        long span = endTime - anchorTime;
+        interpolate = hasAnchor && span > 0 && span <= MAX_ANCHOR_AGE_ms;
+        if (interpolate) {
+            segment.set(anchorLatitude, anchorLongitude, lat, lon);
+            segmentBearing = (float) Math.toDegrees(segment.bearing);
+            segmentSpeed = (float) (segment.length * 1000.0 / span);
+        }
+    }
+
+    /**
+     * Fake fix at time (ms), stored in the public fields.
+     */
+    public void at(long time) {
+        double lat, lon;
+        float b, s;
+
+        if (time >= endTime) {
+            lat = endLatitude;
+            lon = endLongitude;
+            b = endBearing;
+            s = endSpeed;
+        } else if (interpolate && time >= anchorTime) {
+            segment.interpolate((double) (time - anchorTime) / (endTime - anchorTime));
+            lat = segment.latitude;
+            lon = segment.longitude;
+            if (segmentSpeed > 0.1f) {
+                b = segmentBearing;
+                s = segmentSpeed;
+            } else {
+                b = endBearing;
+                s = 0.0f;
+            }
+        } else {
+            position.set(endLatitude, endLongitude);
+            Geodesy.displaceFast(position, -endSpeed * (endTime - time) / 1000.0, Math.toRadians(endBearing));
+            lat = position.latitude;
+            lon = position.longitude;
+            b = endBearing;
+            s = endSpeed;
+        }
+
+        if (addNoise) {
+            noise.apply(key, time, lat, lon, b, s, accuracy);
+            latitude = noise.latitude;
+            longitude = noise.longitude;
+            bearing = noise.bearing;
+            speed = noise.speed;
+        } else {
+            latitude = lat;
+            longitude = lon;
+            bearing = b;
+            speed = s;
+        }
+    }
+
+    /**
+     * Finish the batch, its end is the anchor for the next one.
+     */
+    public void end() {
+        hasAnchor = true;
+        anchorTime = endTime;
+        anchorLatitude = endLatitude;
+        anchorLongitude = endLongitude;
+    }
+}
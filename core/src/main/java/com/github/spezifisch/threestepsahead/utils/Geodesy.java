@@ -0,0 +1,190 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+/**
+ * Spherical earth math on plain degrees, shared by the app and the hooks.
+ * Nothing here allocates, results go to a Position or a caller-provided array.
+ */
+public class Geodesy {
+    public static final double EARTH_RADIUS = 6371e3; // m
+
+    /**
+     * Mutable position for integrating movement without Location objects.
+     */
+    public static class Position {
+        public double latitude, longitude; // degrees
+
+        public Position() {
+        }
+
+        public Position(double latitude, double longitude) {
+            set(latitude, longitude);
+        }
+
+        public void set(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    /**
+     * Move distance (m) in direction theta (rad, CW from north).
+     * @param out latitude, longitude in degrees
+     */
+    public static void displace(double lat, double lon, double distance, double theta, double[] out) {
+        double delta = distance / EARTH_RADIUS;
+        double lat1 = Math.toRadians(lat);
+        double lng1 = Math.toRadians(lon);
+
+        double lat2 = Math.asin( Math.sin(lat1) * Math.cos(delta) +
+                Math.cos(lat1) * Math.sin(delta) * Math.cos(theta) );
+
+        double lng2 = lng1 + Math.atan2( Math.sin(theta) * Math.sin(delta) * Math.cos(lat1),
+                Math.cos(delta) - Math.sin(lat1) * Math.sin(lat2));
+
+        lng2 = (lng2 + 3 * Math.PI) % (2 * Math.PI) - Math.PI;
+
+        out[0] = Math.toDegrees(lat2);
+        out[1] = Math.toDegrees(lng2);
+    }
+
+    /**
+     * Exact (spherical) displacement of p, see displace() above.
+     */
+    public static void displace(Position p, double distance, double theta) {
+        double delta = distance / EARTH_RADIUS;
+        double lat1 = Math.toRadians(p.latitude);
+        double sinLat1 = Math.sin(lat1), cosLat1 = Math.cos(lat1);
+        double sinDelta = Math.sin(delta), cosDelta = Math.cos(delta);
+
+        double sinLat2 = sinLat1 * cosDelta + cosLat1 * sinDelta * Math.cos(theta);
+        double lat2 = Math.asin(sinLat2);
+        double lng2 = Math.toRadians(p.longitude) +
+                Math.atan2(Math.sin(theta) * sinDelta * cosLat1, cosDelta - sinLat1 * sinLat2);
+
+        lng2 = (lng2 + 3 * Math.PI) % (2 * Math.PI) - Math.PI;
+
+        p.latitude = Math.toDegrees(lat2);
+        p.longitude = Math.toDegrees(lng2);
+    }
+
+    /**
+     * Move p by north/east meters in the local tangent plane.
+     *
+     * The error against displace() grows with the square of the step and tan(lat): about 1.4 mm
+     * for a 100 m step at 60° latitude, below 1 µm for joystick steps (< 10 cm) anywhere but
+     * close to the poles. See GeodesyAccuracy in the benchmark module.
+     */
+    public static void displaceLocal(Position p, double north, double east) {
+        double lat = p.latitude + Math.toDegrees(north / EARTH_RADIUS);
+        // scale at the midpoint keeps the error second order
+        double cosLat = Math.cos(Math.toRadians((p.latitude + lat) * 0.5));
+        double lon = p.longitude + Math.toDegrees(east / (EARTH_RADIUS * cosLat));
+
+        if (lon > 180.0) {
+            lon -= 360.0;
+        } else if (lon < -180.0) {
+            lon += 360.0;
+        }
+        p.latitude = lat;
+        p.longitude = lon;
+    }
+
+    /**
+     * displaceLocal() with distance (m) and direction theta (rad, CW from north).
+     */
+    public static void displaceFast(Position p, double distance, double theta) {
+        displaceLocal(p, distance * Math.cos(theta), distance * Math.sin(theta));
+    }
+
+    /**
+     * Great-circle distance in m (haversine).
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1), phi2 = Math.toRadians(lat2);
+        double sinDPhi = Math.sin((phi2 - phi1) * 0.5);
+        double sinDLam = Math.sin(Math.toRadians(lon2 - lon1) * 0.5);
+        double a = sinDPhi * sinDPhi + Math.cos(phi1) * Math.cos(phi2) * sinDLam * sinDLam;
+        return 2.0 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1.0 - a));
+    }
+
+    /**
+     * Initial bearing from 1 to 2 in rad (CW from north, 0..2pi).
+     */
+    public static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1), phi2 = Math.toRadians(lat2);
+        double dLam = Math.toRadians(lon2 - lon1);
+        double cosPhi2 = Math.cos(phi2);
+        double theta = Math.atan2(Math.sin(dLam) * cosPhi2,
+                Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * cosPhi2 * Math.cos(dLam));
+        return (theta < 0) ? theta + 2 * Math.PI : theta;
+    }
+
+    /**
+     * Great-circle path between two points. All trigonometry is done in set(),
+     * so interpolating along it is cheap and doesn't allocate.
+     */
+    public static class Segment {
+        // endpoints as unit vectors
+        private double ax, ay, az, bx, by, bz;
+        private double delta;       // angular distance, rad
+        private double sinDelta;
+
+        public double length;       // m
+        public double bearing;      // initial bearing, rad (CW from north)
+
+        public double latitude, longitude; // result of interpolate(), degrees
+
+        /**
+         * lat/lon in degrees
+         */
+        public void set(double lat1, double lon1, double lat2, double lon2) {
+            double phi1 = Math.toRadians(lat1), lam1 = Math.toRadians(lon1);
+            double phi2 = Math.toRadians(lat2), lam2 = Math.toRadians(lon2);
+            double cosPhi1 = Math.cos(phi1), cosPhi2 = Math.cos(phi2);
+
+            ax = cosPhi1 * Math.cos(lam1);
+            ay = cosPhi1 * Math.sin(lam1);
+            az = Math.sin(phi1);
+            bx = cosPhi2 * Math.cos(lam2);
+            by = cosPhi2 * Math.sin(lam2);
+            bz = Math.sin(phi2);
+
+            // atan2 of cross and dot product is accurate for tiny distances, unlike acos
+            double cx = ay * bz - az * by, cy = az * bx - ax * bz, cz = ax * by - ay * bx;
+            delta = Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), ax * bx + ay * by + az * bz);
+            sinDelta = Math.sin(delta);
+            length = delta * EARTH_RADIUS;
+
+            double dLam = lam2 - lam1;
+            bearing = Math.atan2(Math.sin(dLam) * cosPhi2,
+                    cosPhi1 * Math.sin(phi2) - Math.sin(phi1) * cosPhi2 * Math.cos(dLam));
+            if (bearing < 0) {
+                bearing += 2 * Math.PI;
+            }
+
+            latitude = lat1;
+            longitude = lon1;
+        }
+
+        /**
+         * Point at fraction f (0..1) of the way, stored in latitude/longitude.
+         */
+        public void interpolate(double f) {
+            double wa, wb;
+            if (sinDelta < 1e-12) {
+                // (almost) same point, linear is exact enough
+                wa = 1 - f;
+                wb = f;
+            } else {
+                wa = Math.sin((1 - f) * delta) / sinDelta;
+                wb = Math.sin(f * delta) / sinDelta;
+            }
+
+            double x = wa * ax + wb * bx;
+            double y = wa * ay + wb * by;
+            double z = wa * az + wb * bz;
+            latitude = Math.toDegrees(Math.atan2(z, Math.sqrt(x * x + y * y)));
+            longitude = Math.toDegrees(Math.atan2(y, x));
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Immutable satellite status in the array layout of GnssStatus.
+ *
+ * GnssStatus keeps references to the arrays it is built from, so a snapshot must never be
+ * modified after it was handed out. A new one is built for every update instead.
+ */
+public class GnssSnapshot {
+    // from GnssStatus (hidden)
+    public static final int FLAG_HAS_EPHEMERIS_DATA = (1 << 0);
+    public static final int FLAG_HAS_ALMANAC_DATA = (1 << 1);
+    public static final int FLAG_USED_IN_FIX = (1 << 2);
+    public static final int SVID_SHIFT_WIDTH = 8;
+    public static final int CONSTELLATION_TYPE_SHIFT_WIDTH = 4;
+
+    public static final GnssSnapshot EMPTY = new GnssSnapshot(0);
+
+    public final long time;
+    public final int svCount;
+    public final int[] svidWithFlags;
+    public final float[] cn0s;
+    public final float[] elevations;
+    public final float[] azimuths;
+    public final float[] carrierFrequencies; // unknown, always 0
+
+    private GnssSnapshot(int svCount) {
+        this(svCount, 0);
+    }
+
+    private GnssSnapshot(int svCount, long time) {
+        this.time = time;
+        this.svCount = svCount;
+        svidWithFlags = new int[svCount];
+        cn0s = new float[svCount];
+        elevations = new float[svCount];
+        azimuths = new float[svCount];
+        carrierFrequencies = new float[svCount];
+    }
+
+    /**
+     * @param rand noise source for C/N0 and dropped fixes, null for no noise
+     * @param fixDropRate probability of a satellite not being used in fix
+     */
+    public static GnssSnapshot build(List<SpaceMan.MyGpsSatellite> sats, long time, Random rand, double fixDropRate) {
+        GnssSnapshot s = new GnssSnapshot(sats.size(), time);
+
+        for (int i = 0; i < s.svCount; i++) {
+            SpaceMan.MyGpsSatellite gs = sats.get(i);
+
+            int flags = 0;
+            if (gs.hasEphemeris) {
+                flags |= FLAG_HAS_EPHEMERIS_DATA;
+            }
+            if (gs.hasAlmanac) {
+                flags |= FLAG_HAS_ALMANAC_DATA;
+            }
+            if (gs.usedInFix && (rand == null || rand.nextFloat() > fixDropRate)) {
+                flags |= FLAG_USED_IN_FIX;
+            }
+
+            s.svidWithFlags[i] = (gs.svid << SVID_SHIFT_WIDTH) |
+                    (gs.constellation << CONSTELLATION_TYPE_SHIFT_WIDTH) | flags;
+            if (rand != null) {
+                s.cn0s[i] = Math.round(gs.snr + rand.nextGaussian() * 1.2f);
+            } else {
+                s.cn0s[i] = gs.snr;
+            }
+            s.elevations[i] = gs.elevation;
+            s.azimuths[i] = gs.azimuth;
+        }
+
+        return s;
+    }
+}
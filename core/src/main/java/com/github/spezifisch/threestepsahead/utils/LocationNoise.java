@@ -0,0 +1,50 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+/**
+ * Gaussian noise on a fake fix, so it doesn't look too perfect.
+ * Results are stored in the public fields, nothing is allocated per fix.
+ *
+ * The noise only depends on a session key and the fix epoch (see CounterRandom),
+ * so all hooked apps that get the same real fix compute the same noisy location.
+ */
+public class LocationNoise {
+    // random draws per fix, see CounterRandom for how draws map to stream positions
+    static final int DRAWS = 4;
+    static final int BEARING = 0, SPEED = 1, DISTANCE = 2, THETA = 3;
+
+    public double latitude, longitude; // deg
+    public float bearing;              // deg
+    public float speed;                // m/s
+
+    private final double[] position = new double[2];
+
+    // CounterRandom draw number of one of the draws above for a fix
+    static long draw(long epoch, int which) {
+        return epoch * DRAWS + which;
+    }
+
+    /**
+     * @param key session key shared by all processes
+     * @param epoch time of the real fix (ms)
+     */
+    public void apply(long key, long epoch, double lat, double lon, float bearing, float speed, float accuracy) {
+        // bearing
+        this.bearing = (float) (bearing + CounterRandom.nextGaussian(key, draw(epoch, BEARING)) * 2.0) % 360.0f;
+
+        // speed
+        final double speedNoise = CounterRandom.nextGaussian(key, draw(epoch, SPEED));
+        if (speed > 1.0) {
+            this.speed = (float) Math.abs(speed + speedNoise * 0.2);
+        } else {
+            this.speed = (float) Math.abs(speed + speedNoise * 0.05);
+        }
+
+        // lat/lon
+        final double randDistance = CounterRandom.nextGaussian(key, draw(epoch, DISTANCE)) * Math.max(5.0, accuracy) / 6.0;
+        final double randTheta = CounterRandom.nextUniform(key, draw(epoch, THETA)) * 2.0 * Math.PI;
+
+        Geodesy.displace(lat, lon, randDistance, randTheta, position);
+        latitude = position[0];
+        longitude = position[1];
+    }
+}
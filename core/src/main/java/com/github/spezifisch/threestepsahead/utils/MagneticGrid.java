@@ -0,0 +1,110 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+/**
+ * Earth magnetic field at the fake location, cheap enough to look up per magnetometer sample.
+ *
+ * The field model (WMM) is only evaluated at the eight corners of the lat/lon/time cell that
+ * contains the position, and again when the position leaves it. In between the corners are
+ * interpolated trilinearly. Within a 1 degree cell the field is smooth enough that this is far
+ * below magnetometer noise.
+ */
+public class MagneticGrid {
+    /**
+     * Full evaluation of the field model.
+     */
+    public interface Model {
+        /**
+         * @param time ms since epoch
+         * @param out north, east, down component in nT
+         */
+        void evaluate(double lat, double lon, double alt, long time, double[] out);
+    }
+
+    static final double CELL_DEG = 1.0;
+    static final long CELL_TIME_ms = 30L * 24 * 3600 * 1000;
+
+    // result of update(), uT
+    public float north, east, down;
+
+    private final Model model;
+    private final double[] field = new double[3];
+
+    // corner values in uT, index ((t * 2 + i) * 2 + j) * 3 + component for time t, lat i, lon j
+    private final float[] corners = new float[24];
+    private boolean valid = false;
+    private double lat0, lon0;
+    private long time0;
+    private int evaluations = 0;
+
+    public MagneticGrid(Model model) {
+        this.model = model;
+    }
+
+    /**
+     * Field at the given position (deg, m) and time (ms since epoch), stored in north/east/down.
+     */
+    public void update(double lat, double lon, double alt, long time) {
+        final double cellLat = cellLatitude(lat);
+        if (!valid || cellLat < lat0 || cellLat >= lat0 + CELL_DEG || lon < lon0 || lon >= lon0 + CELL_DEG ||
+                time < time0 || time >= time0 + CELL_TIME_ms) {
+            load(lat, lon, alt, time);
+        }
+
+        final float fi = (float) ((lat - lat0) / CELL_DEG);
+        final float fj = (float) ((lon - lon0) / CELL_DEG);
+        final float ft = (float) (time - time0) / CELL_TIME_ms;
+        north = interpolate(0, fi, fj, ft);
+        east = interpolate(1, fi, fj, ft);
+        down = interpolate(2, fi, fj, ft);
+    }
+
+    private float interpolate(int c, float fi, float fj, float ft) {
+        final float[] v = corners;
+        float t0 = bilinear(v[c], v[3 + c], v[6 + c], v[9 + c], fi, fj);
+        float t1 = bilinear(v[12 + c], v[15 + c], v[18 + c], v[21 + c], fi, fj);
+        return t0 + (t1 - t0) * ft;
+    }
+
+    private static float bilinear(float v00, float v01, float v10, float v11, float fi, float fj) {
+        float a = v00 + (v01 - v00) * fj;
+        float b = v10 + (v11 - v10) * fj;
+        return a + (b - a) * fi;
+    }
+
+    // the north pole belongs to the cell below it, there's none above
+    private static double cellLatitude(double lat) {
+        return Math.min(lat, 90.0 - CELL_DEG);
+    }
+
+    // full evaluation at the corners of the cell containing the position
+    private void load(double lat, double lon, double alt, long time) {
+        lat0 = Math.floor(cellLatitude(lat) / CELL_DEG) * CELL_DEG;
+        lon0 = Math.floor(lon / CELL_DEG) * CELL_DEG;
+        time0 = time - ((time % CELL_TIME_ms) + CELL_TIME_ms) % CELL_TIME_ms;
+
+        int k = 0;
+        for (int t = 0; t < 2; t++) {
+            for (int i = 0; i < 2; i++) {
+                for (int j = 0; j < 2; j++) {
+                    double cornerLon = lon0 + j * CELL_DEG;
+                    if (cornerLon > 180.0) {
+                        cornerLon -= 360.0;
+                    }
+                    model.evaluate(lat0 + i * CELL_DEG, cornerLon, alt, time0 + t * CELL_TIME_ms, field);
+                    corners[k++] = (float) (field[0] * 1e-3);
+                    corners[k++] = (float) (field[1] * 1e-3);
+                    corners[k++] = (float) (field[2] * 1e-3);
+                }
+            }
+        }
+        valid = true;
+        evaluations++;
+    }
+
+    /**
+     * Number of cells evaluated so far.
+     */
+    public int getEvaluations() {
+        return evaluations;
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import java.util.Arrays;
+
+/**
+ * Sensor handle to sensor type, filled when sensors are enumerated or registered,
+ * so dispatching an event needs a single array lookup instead of reflection.
+ *
+ * Handles are small on all known devices. Larger ones are not stored and read as unknown,
+ * their events are passed through unchanged.
+ */
+public class SensorTable {
+    static final int INITIAL_SIZE = 64;
+    static final int MAX_HANDLE = 1 << 16;
+
+    public static final int UNKNOWN = 0;
+
+    // grown by copying, readers see either the old or the new array
+    private volatile int[] types = new int[INITIAL_SIZE];
+
+    public synchronized void put(int handle, int type) {
+        if (handle < 0 || handle >= MAX_HANDLE) {
+            return;
+        }
+
+        int[] t = types;
+        if (handle >= t.length) {
+            t = Arrays.copyOf(t, Integer.highestOneBit(handle) << 1);
+        }
+        t[handle] = type;
+        types = t;
+    }
+
+    /**
+     * @return type of the sensor, UNKNOWN if it wasn't put()
+     */
+    public int get(int handle) {
+        final int[] t = types;
+        return (handle >= 0 && handle < t.length) ? t[handle] : UNKNOWN;
+    }
+}
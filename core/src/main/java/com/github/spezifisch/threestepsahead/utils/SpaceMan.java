@@ -0,0 +1,266 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+
+import uk.me.g4dpz.satellite.Satellite;
+import uk.me.g4dpz.satellite.SatelliteFactory;
+import uk.me.g4dpz.satellite.TLE;
+
+public class SpaceMan {
+    private static final String TAG = "SpaceMan";
+
+    public interface Logger {
+        void log(String s);
+    }
+
+    private static final Logger STDOUT = new Logger() {
+        @Override
+        public void log(String s) {
+            System.out.println(TAG + ": " + s);
+        }
+    };
+    private Logger logger = STDOUT;
+
+    // time for calculation
+    protected Date now = new Date();
+    // observer position (ECEF, km) and its east/north/up rotation
+    protected double[] observer = new double[3];
+    protected double sinLat, cosLat, sinLon, cosLon;
+    protected double observerLat = Double.NaN, observerLon = Double.NaN, observerAlt = Double.NaN;
+
+    // satellite data cache (shared)
+    public class SatelliteInfo {
+        public TLE tle;
+        public Satellite satellite;
+        public int constellation, svid;
+        public int prn; // legacy GpsStatus numbering
+        public float azimuth, elevation; // deg
+        // reused entry for gpsSatellites
+        public MyGpsSatellite gps = new MyGpsSatellite();
+    }
+    protected ArrayList<SatelliteInfo> sats = new ArrayList<>();
+    protected ArrayList<Satellite> satellites = new ArrayList<>();
+
+    // only report GPS satellites (for devices without multi-constellation receiver)
+    protected boolean gpsOnly = false;
+
+    // satellite positions for the next hour
+    protected EphemerisCache ephemeris = new EphemerisCache();
+    private double[] satPosition = new double[3];
+
+    // parsed data for GpsSatellite list in GpsStatus
+    public class MyGpsSatellite {
+        public float azimuth, elevation; // deg
+        public int constellation, svid;
+        public int prn; // legacy GpsStatus numbering
+        public float snr;
+        public boolean hasAlmanac, hasEphemeris, usedInFix;
+
+        @Override
+        public String toString() {
+            return "MyGpsSatellite PRN " + prn + " (" + constellation + "/" + svid + ") SNR " + snr +
+                    " Azi " + azimuth + " Ele " + elevation +
+                    " ALM " + hasAlmanac + " EPH " + hasEphemeris + " USE " + usedInFix;
+        }
+    }
+    protected ArrayList<MyGpsSatellite> gpsSatellites = new ArrayList<>();
+
+    public SpaceMan() {
+        setNow();
+    }
+
+    public SpaceMan(String tles, double lat, double lon, double alt) {
+        setNow();
+        setGroundStationPosition(lat, lon, alt);
+
+        parseTLE(tles);
+
+        calculatePositions();
+
+        dumpSatelliteInfo();
+        dumpGpsSatellites();
+    }
+
+    public void setNow() {
+        setNow(System.currentTimeMillis());
+    }
+
+    public void setNow(long time) {
+        now.setTime(time);
+    }
+
+    public long getNow() {
+        return now.getTime();
+    }
+
+    // lat/lon in degrees, alt in m
+    public void setGroundStationPosition(double lat, double lon, double alt) {
+        if (lat == observerLat && lon == observerLon && alt == observerAlt) {
+            return;
+        }
+        observerLat = lat;
+        observerLon = lon;
+        observerAlt = alt;
+
+        double latRad = Math.toRadians(lat), lonRad = Math.toRadians(lon);
+        EphemerisCache.geodeticToEcef(latRad, lonRad, alt / 1000.0, observer);
+        sinLat = Math.sin(latRad);
+        cosLat = Math.cos(latRad);
+        sinLon = Math.sin(lonRad);
+        cosLon = Math.cos(lonRad);
+    }
+
+    public ArrayList<MyGpsSatellite> getGpsSatellites() {
+        return gpsSatellites;
+    }
+
+    public int getTLECount() {
+        return sats.size();
+    }
+
+    public void setGpsOnly(boolean state) {
+        gpsOnly = state;
+    }
+
+    static public String readTest2() {
+        String s = "GPS BIIR-2  (PRN 13)    \n" +
+                "1 24876U 97035A   16231.42778959  .00000000  00000-0  10000-3 0  9999\n" +
+                "2 24876  55.6359 239.0367 0038451 115.0383 245.4021  2.00563122139758";
+        return s;
+    }
+
+    static public String readFile(InputStream is) {
+        StringBuilder fileContent = new StringBuilder("");
+
+        byte[] buffer = new byte[1024];
+        int n;
+        try {
+            while ((n = is.read(buffer)) != -1) {
+                fileContent.append(new String(buffer, 0, n));
+            }
+        } catch (IOException e) {
+        }
+
+        return fileContent.toString();
+    }
+
+    public void parseTLE(String tles) {
+        parseTLE(tles.split("\n"));
+    }
+
+    public void parseTLE(String[] tles) {
+        sats.clear();
+        satellites.clear();
+        ephemeris.invalidate();
+
+        Constellation.Id id = new Constellation.Id();
+        int glonassSlot = 0;
+
+        for (int i = 0; (i+2) < tles.length; i += 3) {
+            String[] tlein = new String[3];
+            tlein[0] = tles[i];
+            tlein[1] = tles[i + 1];
+            tlein[2] = tles[i + 2];
+
+            if (!Constellation.parse(tlein[0], id)) {
+                log("skipping unknown satellite " + tlein[0]);
+                continue;
+            }
+            if (id.constellation == Constellation.GLONASS && id.svid == 0) {
+                // TLE names don't tell the orbital slot, number them in catalogue order
+                id.svid = ++glonassSlot;
+            }
+
+            SatelliteInfo si = new SatelliteInfo();
+            si.tle = new TLE(tlein);
+            si.satellite = SatelliteFactory.createSatellite(si.tle);
+            si.constellation = id.constellation;
+            si.svid = id.svid;
+            si.prn = Constellation.toLegacyPrn(id.constellation, id.svid);
+            si.gps.constellation = si.constellation;
+            si.gps.svid = si.svid;
+            si.gps.prn = si.prn;
+            sats.add(si);
+            satellites.add(si.satellite);
+        }
+    }
+
+    public void calculatePositions() {
+        gpsSatellites.clear();
+        if (sats.isEmpty()) {
+            return;
+        }
+
+        // the expensive part, two grid samples at most
+        long time = now.getTime();
+        if (!ephemeris.covers(time)) {
+            ephemeris.reset(satellites, time);
+        }
+        ephemeris.prepare(time);
+
+        for (int i = 0; i < sats.size(); i++) {
+            SatelliteInfo si = sats.get(i);
+            ephemeris.position(i, time, satPosition);
+
+            // range vector in east/north/up of observer
+            double dx = satPosition[0] - observer[0];
+            double dy = satPosition[1] - observer[1];
+            double dz = satPosition[2] - observer[2];
+            double east = -sinLon * dx + cosLon * dy;
+            double north = -sinLat * cosLon * dx - sinLat * sinLon * dy + cosLat * dz;
+            double up = cosLat * cosLon * dx + cosLat * sinLon * dy + sinLat * dz;
+
+            double azimuth = Math.toDegrees(Math.atan2(east, north));
+            if (azimuth < 0) {
+                azimuth += 360.0;
+            }
+            si.azimuth = (float) azimuth;
+            si.elevation = (float) Math.toDegrees(Math.atan2(up, Math.sqrt(east * east + north * north)));
+
+            // add visible sats to MyGpsSatellite list
+            if (si.elevation > 0.0 && (!gpsOnly || si.constellation == Constellation.GPS)) {
+                MyGpsSatellite gs = si.gps;
+                gs.azimuth = si.azimuth;
+                gs.elevation = si.elevation;
+
+                // guessed range, the higher above us the better
+                gs.snr = Math.round(20.0f + 70.0f * gs.elevation/90.0f);
+
+                // some quick decisions
+                gs.hasAlmanac = (gs.elevation > 20.0);
+                gs.hasEphemeris = (gs.elevation > 10.0);
+                gs.usedInFix = (gs.elevation > 10.0);
+
+                // unlikely to see lower satellites
+                if (gs.elevation > 10.0) {
+                    gpsSatellites.add(gs);
+                }
+            }
+        }
+    }
+
+    public void dumpSatelliteInfo() {
+        for (SatelliteInfo si: sats) {
+            log("SAT " + si.tle.getName() + " above_horizon " + (si.elevation > 0.0));
+            log("azi " + si.azimuth + " ele " + si.elevation);
+        }
+    }
+
+    public void dumpGpsSatellites() {
+        log("Fix: " + gpsSatellites.size() + " sats");
+        for (MyGpsSatellite gs : gpsSatellites) {
+            log(gs.toString());
+        }
+    }
+
+    public void setLogger(Logger l) {
+        logger = l;
+    }
+
+    protected void log(String s) {
+        logger.log(s);
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+/**
+ * Web Mercator (slippy map) tile numbers and tiles packed into a long key.
+ */
+public final class Tiles {
+    public static final double MAX_LATITUDE = 85.05112878;
+
+    private Tiles() {
+    }
+
+    public static int tileX(double lon, int zoom) {
+        int n = 1 << zoom;
+        int x = (int) Math.floor((lon + 180.0) / 360.0 * n);
+        return Math.min(Math.max(x, 0), n - 1);
+    }
+
+    public static int tileY(double lat, int zoom) {
+        int n = 1 << zoom;
+        double phi = Math.toRadians(Math.min(Math.max(lat, -MAX_LATITUDE), MAX_LATITUDE));
+        int y = (int) Math.floor((1.0 - Math.log(Math.tan(phi) + 1.0 / Math.cos(phi)) / Math.PI) / 2.0 * n);
+        return Math.min(Math.max(y, 0), n - 1);
+    }
+
+    /**
+     * Pixel of 256 px tiles, rounded like osmdroid's TileSystem. Up to zoom 22 it fits an int.
+     */
+    public static int pixelX(double lon, int zoom) {
+        long size = 256L << zoom;
+        double x = (lon + 180.0) / 360.0;
+        return (int) Math.min(Math.max((long) (x * size + 0.5), 0), size - 1);
+    }
+
+    public static int pixelY(double lat, int zoom) {
+        long size = 256L << zoom;
+        double sinLat = Math.sin(Math.toRadians(Math.min(Math.max(lat, -MAX_LATITUDE), MAX_LATITUDE)));
+        double y = 0.5 - Math.log((1.0 + sinLat) / (1.0 - sinLat)) / (4.0 * Math.PI);
+        return (int) Math.min(Math.max((long) (y * size + 0.5), 0), size - 1);
+    }
+
+    // zoom in the top bits, 29 bits each for x and y
+    public static long key(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    public static int keyZoom(long key) {
+        return (int) (key >>> 58);
+    }
+
+    public static int keyX(long key) {
+        return (int) (key >>> 29) & 0x1fffffff;
+    }
+
+    public static int keyY(long key) {
+        return (int) key & 0x1fffffff;
+    }
+}
@@ -0,0 +1,317 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+/**
+ * Travelled path of the fake location, simplified for each map zoom level while it's recorded.
+ *
+ * Points go into a ring buffer of projected pixels (zoom 22, like osmdroid's projected
+ * coordinates), the oldest are dropped when it's full. Every zoom level keeps a Douglas-Peucker
+ * simplification of the path with half a pixel tolerance. Only the open end of a level is
+ * simplified again when points arrive, the vertices before it are final. Each level is fed the
+ * final vertices of the next finer one, so coarse levels see few points and the error of all
+ * levels adds up to at most one pixel.
+ *
+ * Not thread safe, used on the UI thread.
+ */
+public class Track {
+    public static final int PROJECTED_ZOOM = 22;
+    public static final int MIN_ZOOM = 0;
+    public static final int MAX_ZOOM = 19;
+
+    static final int CAPACITY = 1 << 17;    // points, power of two
+    static final double TOLERANCE_px = 0.5;
+    static final int MAX_TAIL = 64;         // open end of a level, bounds the work per point
+
+    // ring of recorded points
+    private final int[] x = new int[CAPACITY];
+    private final int[] y = new int[CAPACITY];
+    private int count = 0;                  // points ever added, sequence number of the next one
+
+    private final Level[] levels = new Level[MAX_ZOOM - MIN_ZOOM + 1];
+
+    // path returned by beginPath()
+    private Level pathLevel;
+    private int pathSize;
+    private final int[] pathX = new int[MAX_ZOOM - MIN_ZOOM + 2];
+    private final int[] pathY = new int[MAX_ZOOM - MIN_ZOOM + 2];
+    private int pathExtra;
+
+    public Track() {
+        for (int zoom = MIN_ZOOM; zoom <= MAX_ZOOM; zoom++) {
+            double tolerance = TOLERANCE_px * (1 << (PROJECTED_ZOOM - zoom));
+            levels[zoom - MIN_ZOOM] = new Level(tolerance, zoom > MIN_ZOOM ? levels[zoom - MIN_ZOOM - 1] : null);
+        }
+    }
+
+    public void add(double lat, double lon) {
+        final int px = Tiles.pixelX(lon, PROJECTED_ZOOM), py = Tiles.pixelY(lat, PROJECTED_ZOOM);
+        if (count > 0) {
+            final int last = (count - 1) & (CAPACITY - 1);
+            if (x[last] == px && y[last] == py) {
+                return; // standing still
+            }
+        }
+
+        final int seq = count++;
+        x[seq & (CAPACITY - 1)] = px;
+        y[seq & (CAPACITY - 1)] = py;
+
+        levels[MAX_ZOOM - MIN_ZOOM].add(px, py, seq);
+
+        if (count > CAPACITY) {
+            final int oldest = count - CAPACITY;
+            for (Level level : levels) {
+                level.evict(oldest);
+            }
+        }
+    }
+
+    public void clear() {
+        count = 0;
+        for (Level level : levels) {
+            level.clear();
+        }
+    }
+
+    /**
+     * Recorded points, at most CAPACITY.
+     */
+    public int size() {
+        return Math.min(count, CAPACITY);
+    }
+
+    /**
+     * Prepare the path simplified for a zoom level, read it with pathX()/pathY().
+     * @return number of vertices
+     */
+    public int beginPath(int zoom) {
+        zoom = Math.min(Math.max(zoom, MIN_ZOOM), MAX_ZOOM);
+        pathLevel = levels[zoom - MIN_ZOOM];
+        pathSize = pathLevel.size;
+        pathExtra = 0;
+        if (count == 0) {
+            return 0;
+        }
+
+        // the open ends of this and the finer levels lead up to the newest point
+        int seq = pathSize > 0 ? pathLevel.lastSeq() : -1;
+        for (int i = zoom - MIN_ZOOM; i <= MAX_ZOOM - MIN_ZOOM; i++) {
+            Level level = levels[i];
+            if (level.tailLength > 0 && level.tailSeq[0] > seq) {
+                seq = level.tailSeq[0];
+                pathX[pathExtra] = level.tailX[0];
+                pathY[pathExtra++] = level.tailY[0];
+            }
+        }
+        if (count - 1 > seq) {
+            pathX[pathExtra] = x[(count - 1) & (CAPACITY - 1)];
+            pathY[pathExtra++] = y[(count - 1) & (CAPACITY - 1)];
+        }
+        return pathSize + pathExtra;
+    }
+
+    public int pathX(int i) {
+        return i < pathSize ? pathLevel.x(i) : pathX[i - pathSize];
+    }
+
+    public int pathY(int i) {
+        return i < pathSize ? pathLevel.y(i) : pathY[i - pathSize];
+    }
+
+    /**
+     * Final vertices of a zoom level, without its open end.
+     */
+    public int getVertexCount(int zoom) {
+        return levels[zoom - MIN_ZOOM].size;
+    }
+
+    // simplification for one zoom level
+    static class Level {
+        private final double toleranceSq;
+        private final Level coarser;
+
+        // final vertices, ring grown up to CAPACITY
+        private int[] vx = new int[64], vy = new int[64], vseq = new int[64];
+        private int head = 0, size = 0;
+
+        // open end: last final vertex followed by the input since then
+        final int[] tailX = new int[MAX_TAIL], tailY = new int[MAX_TAIL], tailSeq = new int[MAX_TAIL];
+        int tailLength = 0;
+
+        // Douglas-Peucker work space
+        private final boolean[] keep = new boolean[MAX_TAIL];
+        private final int[] stack = new int[2 * MAX_TAIL];
+
+        Level(double tolerance, Level coarser) {
+            this.toleranceSq = tolerance * tolerance;
+            this.coarser = coarser;
+        }
+
+        int x(int i) {
+            return vx[(head + i) & (vx.length - 1)];
+        }
+
+        int y(int i) {
+            return vy[(head + i) & (vy.length - 1)];
+        }
+
+        int lastSeq() {
+            return vseq[(head + size - 1) & (vseq.length - 1)];
+        }
+
+        void add(int px, int py, int seq) {
+            if (tailLength == 0) {
+                commit(px, py, seq);
+                push(px, py, seq);
+                return;
+            }
+
+            push(px, py, seq);
+            if (tailLength < 3) {
+                return;
+            }
+
+            final int last = tailLength - 1;
+            if (maxDistanceSq(0, last) <= toleranceSq) {
+                if (tailLength == MAX_TAIL) {
+                    // straight enough, close the open end
+                    commitTail(last);
+                }
+                return;
+            }
+
+            // simplify the open end, everything but its last point is final
+            simplify(0, last);
+            int anchor = 0;
+            for (int i = 1; i < last; i++) {
+                if (keep[i]) {
+                    commit(tailX[i], tailY[i], tailSeq[i]);
+                    anchor = i;
+                }
+            }
+            shiftTail(anchor);
+        }
+
+        private void push(int px, int py, int seq) {
+            tailX[tailLength] = px;
+            tailY[tailLength] = py;
+            tailSeq[tailLength++] = seq;
+        }
+
+        private void commitTail(int i) {
+            commit(tailX[i], tailY[i], tailSeq[i]);
+            shiftTail(i);
+        }
+
+        // tail starts at index i
+        private void shiftTail(int i) {
+            if (i == 0) {
+                return;
+            }
+            tailLength -= i;
+            System.arraycopy(tailX, i, tailX, 0, tailLength);
+            System.arraycopy(tailY, i, tailY, 0, tailLength);
+            System.arraycopy(tailSeq, i, tailSeq, 0, tailLength);
+        }
+
+        private void commit(int px, int py, int seq) {
+            if (size == vx.length) {
+                grow();
+            }
+            final int i = (head + size++) & (vx.length - 1);
+            vx[i] = px;
+            vy[i] = py;
+            vseq[i] = seq;
+
+            if (coarser != null) {
+                coarser.add(px, py, seq);
+            }
+        }
+
+        private void grow() {
+            final int n = vx.length;
+            if (n == CAPACITY) {
+                // can't happen while evict() keeps up, drop the oldest vertex
+                head = (head + 1) & (n - 1);
+                size--;
+                return;
+            }
+            int[] nx = new int[2 * n], ny = new int[2 * n], nseq = new int[2 * n];
+            for (int i = 0; i < size; i++) {
+                int j = (head + i) & (n - 1);
+                nx[i] = vx[j];
+                ny[i] = vy[j];
+                nseq[i] = vseq[j];
+            }
+            vx = nx;
+            vy = ny;
+            vseq = nseq;
+            head = 0;
+        }
+
+        // keeps the vertex the oldest point's segment starts at
+        void evict(int oldest) {
+            while (size > 1 && vseq[(head + 1) & (vseq.length - 1)] <= oldest) {
+                head = (head + 1) & (vx.length - 1);
+                size--;
+            }
+        }
+
+        void clear() {
+            head = size = tailLength = 0;
+        }
+
+        // Douglas-Peucker between tail points first and last, marks kept points
+        private void simplify(int first, int last) {
+            for (int i = first; i <= last; i++) {
+                keep[i] = false;
+            }
+            keep[first] = keep[last] = true;
+
+            int sp = 0;
+            stack[sp++] = first;
+            stack[sp++] = last;
+            while (sp > 0) {
+                final int b = stack[--sp], a = stack[--sp];
+                if (b - a < 2) {
+                    continue;
+                }
+                int farthest = -1;
+                double maxSq = toleranceSq;
+                for (int i = a + 1; i < b; i++) {
+                    double d = distanceSq(i, a, b);
+                    if (d > maxSq) {
+                        maxSq = d;
+                        farthest = i;
+                    }
+                }
+                if (farthest >= 0) {
+                    keep[farthest] = true;
+                    stack[sp++] = a;
+                    stack[sp++] = farthest;
+                    stack[sp++] = farthest;
+                    stack[sp++] = b;
+                }
+            }
+        }
+
+        private double maxDistanceSq(int a, int b) {
+            double maxSq = 0;
+            for (int i = a + 1; i < b; i++) {
+                maxSq = Math.max(maxSq, distanceSq(i, a, b));
+            }
+            return maxSq;
+        }
+
+        // squared distance of tail point i from the segment between tail points a and b
+        private double distanceSq(int i, int a, int b) {
+            final double ax = tailX[a], ay = tailY[a];
+            final double dx = tailX[b] - ax, dy = tailY[b] - ay;
+            final double px = tailX[i] - ax, py = tailY[i] - ay;
+            final double lengthSq = dx * dx + dy * dy;
+            double t = lengthSq > 0 ? (px * dx + py * dy) / lengthSq : 0;
+            t = Math.min(Math.max(t, 0), 1);
+            final double ex = px - t * dx, ey = py - t * dy;
+            return ex * ex + ey * ey;
+        }
+    }
+}
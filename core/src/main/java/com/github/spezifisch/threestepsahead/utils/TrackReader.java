@@ -0,0 +1,156 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads waypoints one at a time from track files, so tracks of any length only need a fixed
+ * amount of memory. CSV is read here, GPX and KML by TrackFile in the app.
+ */
+public abstract class TrackReader implements Closeable {
+    public static final long NO_TIME = -1;
+
+    public static class Waypoint {
+        public double latitude, longitude; // degrees
+        public double altitude;            // m
+        public long time;                  // ms since epoch, NO_TIME if the file has none
+
+        public void reset() {
+            latitude = longitude = altitude = 0;
+            time = NO_TIME;
+        }
+
+        public void set(Waypoint w) {
+            latitude = w.latitude;
+            longitude = w.longitude;
+            altitude = w.altitude;
+            time = w.time;
+        }
+    }
+
+    protected final Reader in;
+
+    protected TrackReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next waypoint into out.
+     * @return false at the end of the track
+     */
+    public abstract boolean next(Waypoint out) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Lines of "latitude,longitude[,altitude[,time]]", time as ISO 8601 or epoch ms.
+     * Empty lines, comments (#) and lines that aren't numbers (headers) are skipped.
+     */
+    public static class Csv extends TrackReader {
+        private final BufferedReader lines;
+
+        public Csv(Reader in) {
+            super(in);
+            lines = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in);
+        }
+
+        @Override
+        public boolean next(Waypoint out) throws IOException {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+
+                String[] col = line.split("[,;\t]");
+                if (col.length < 2) {
+                    continue;
+                }
+                try {
+                    out.reset();
+                    out.latitude = Double.parseDouble(col[0].trim());
+                    out.longitude = Double.parseDouble(col[1].trim());
+                    if (col.length > 2 && !col[2].trim().isEmpty()) {
+                        out.altitude = Double.parseDouble(col[2].trim());
+                    }
+                    if (col.length > 3) {
+                        out.time = parseTime(col[3].trim());
+                    }
+                    return true;
+                } catch (NumberFormatException e) {
+                    // header
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Parses epoch ms or ISO 8601 "yyyy-MM-ddTHH:mm:ss[.fff][Z|+hh:mm]", NO_TIME if neither.
+     */
+    public static long parseTime(String s) {
+        if (s.isEmpty()) {
+            return NO_TIME;
+        }
+        if (s.length() < 19 || s.charAt(4) != '-') {
+            try {
+                return Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                return NO_TIME;
+            }
+        }
+
+        try {
+            int year = Integer.parseInt(s.substring(0, 4));
+            int month = Integer.parseInt(s.substring(5, 7));
+            int day = Integer.parseInt(s.substring(8, 10));
+            int hour = Integer.parseInt(s.substring(11, 13));
+            int minute = Integer.parseInt(s.substring(14, 16));
+            int second = Integer.parseInt(s.substring(17, 19));
+
+            int pos = 19;
+            long millis = 0;
+            if (pos < s.length() && s.charAt(pos) == '.') {
+                int scale = 100;
+                for (pos++; pos < s.length() && Character.isDigit(s.charAt(pos)); pos++) {
+                    millis += (s.charAt(pos) - '0') * scale;
+                    scale /= 10;
+                }
+            }
+
+            long offset = 0; // ms, no zone is taken as UTC
+            if (pos < s.length() && (s.charAt(pos) == '+' || s.charAt(pos) == '-')) {
+                String zone = s.substring(pos + 1).replace(":", "");
+                int hh = Integer.parseInt(zone.substring(0, 2));
+                int mm = (zone.length() >= 4) ? Integer.parseInt(zone.substring(2, 4)) : 0;
+                offset = (hh * 60 + mm) * 60000L;
+                if (s.charAt(pos) == '-') {
+                    offset = -offset;
+                }
+            }
+
+            long days = daysFromCivil(year, month, day);
+            return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis - offset;
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return NO_TIME;
+        }
+    }
+
+    // days since 1970-01-01 in the proleptic Gregorian calendar
+    static long daysFromCivil(int y, int m, int d) {
+        if (m <= 2) {
+            y -= 1;
+        }
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+/**
+ * Track times of waypoints while a track is replayed, in ms from the first waypoint on.
+ *
+ * Waypoints without time are spaced at a constant speed. File times are shifted so that the first
+ * timed waypoint after untimed ones, or one going back in time, follows at that speed as well,
+ * the timed waypoints after it keep their spacing.
+ */
+public class TrackTimes {
+    private long shift;         // track time - file time, ms
+    private boolean anchored;   // shift is set by a timed waypoint
+
+    /**
+     * Start a track, the time of its first waypoint becomes 0 if it has none.
+     */
+    public void start(TrackReader.Waypoint first) {
+        shift = 0;
+        anchored = (first.time != TrackReader.NO_TIME);
+        if (!anchored) {
+            first.time = 0;
+        }
+    }
+
+    /**
+     * Replace the file time of the next waypoint by its track time.
+     * @param from previous waypoint, already in track time
+     * @param length distance from the previous waypoint, m
+     * @param speed for waypoints without time, m/s
+     */
+    public void next(TrackReader.Waypoint from, TrackReader.Waypoint to, double length, double speed) {
+        long walked = from.time + Math.max(1, (long) (length / speed * 1000.0));
+        if (to.time == TrackReader.NO_TIME) {
+            to.time = walked;
+        } else if (!anchored || to.time + shift <= from.time) {
+            shift = walked - to.time;
+            anchored = true;
+            to.time = walked;
+        } else {
+            to.time += shift;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class ConstellationTest {
+    private final Constellation.Id id = new Constellation.Id();
+
+    private void assertParsed(String name, int constellation, int svid) {
+        assertTrue(name, Constellation.parse(name, id));
+        assertEquals(name, constellation, id.constellation);
+        assertEquals(name, svid, id.svid);
+    }
+
+    private void assertRejected(String name) {
+        assertFalse(name, Constellation.parse(name, id));
+    }
+
+    @Test
+    public void parseCelestrakNames() {
+        assertParsed("GPS BIIR-2  (PRN 13)    ", Constellation.GPS, 13);
+        assertParsed("GSAT0101 (PRN E11)", Constellation.GALILEO, 11);
+        assertParsed("GALILEO NOMINAL (PRN E24)", Constellation.GALILEO, 24);
+        assertParsed("BEIDOU 3 (C08)", Constellation.BEIDOU, 8);
+        assertParsed("BEIDOU-3 M1 (C19)", Constellation.BEIDOU, 19);
+        assertParsed("QZS-1 (QZSS/PRN 193)", Constellation.QZSS, 193);
+        assertParsed("QZS-2 (J02)", Constellation.QZSS, 194);
+        assertParsed("GLONASS NOMINAL (R07)", Constellation.GLONASS, 7);
+        assertParsed("INMARSAT 4-F3 (PRN 133)", Constellation.SBAS, 133);
+        assertParsed("SES-5 (PRN 136)", Constellation.SBAS, 136);
+        assertParsed("EGNOS NOMINAL (PRN 120)", Constellation.SBAS, 120);
+        assertParsed("WAAS NOMINAL (PRN 151)", Constellation.SBAS, 151);
+    }
+
+    @Test
+    public void parseIgnoresCaseAndWhitespace() {
+        assertParsed("  gps biif-1  (prn 25)  ", Constellation.GPS, 25);
+        assertParsed("gsat0203 (prn e26)", Constellation.GALILEO, 26);
+    }
+
+    @Test
+    public void glonassWithoutSlot() {
+        // the number is the GLONASS number, SpaceMan assigns the slot
+        assertParsed("COSMOS 2433 (720)", Constellation.GLONASS, 0);
+        assertParsed("GLONASS-K1 (701K)", Constellation.GLONASS, 0);
+    }
+
+    @Test
+    public void parseRejects() {
+        assertRejected("ISS (ZARYA)");
+        assertRejected("STARLINK-1007");
+        assertRejected("");
+        // SBAS beyond the legacy range
+        assertRejected("SOMESAT (PRN 152)");
+        assertRejected("SOMESAT (PRN 158)");
+        assertRejected("SOMESAT (PRN 119)");
+    }
+
+    @Test
+    public void legacyPrn() {
+        assertEquals(13, Constellation.toLegacyPrn(Constellation.GPS, 13));
+        assertEquals(33, Constellation.toLegacyPrn(Constellation.SBAS, 120));
+        assertEquals(64, Constellation.toLegacyPrn(Constellation.SBAS, 151));
+        assertEquals(65, Constellation.toLegacyPrn(Constellation.GLONASS, 1));
+        assertEquals(88, Constellation.toLegacyPrn(Constellation.GLONASS, 24));
+        assertEquals(193, Constellation.toLegacyPrn(Constellation.QZSS, 193));
+        assertEquals(201, Constellation.toLegacyPrn(Constellation.BEIDOU, 1));
+        assertEquals(311, Constellation.toLegacyPrn(Constellation.GALILEO, 11));
+    }
+
+    // every svid range maps to its own legacy range and back
+    @Test
+    public void legacyPrnRoundTrip() {
+        int[][] ranges = {
+                {Constellation.GPS, 1, 32},
+                {Constellation.SBAS, 120, 151},
+                {Constellation.GLONASS, 1, 32},
+                {Constellation.QZSS, 193, 200},
+                {Constellation.BEIDOU, 1, 63},
+                {Constellation.GALILEO, 1, 36},
+        };
+        HashMap<Integer, Integer> used = new HashMap<>();
+        for (int[] r : ranges) {
+            for (int svid = r[1]; svid <= r[2]; svid++) {
+                int prn = Constellation.toLegacyPrn(r[0], svid);
+                assertEquals("svid " + svid, r[0], Constellation.fromLegacyPrn(prn));
+                assertNull("prn " + prn + " used twice", used.put(prn, r[0]));
+            }
+        }
+    }
+
+    // the TLE sets shipped with the app parse without legacy PRN collisions
+    @Test
+    public void bundledTLEs() throws IOException {
+        String[] files = {"gps_ops_test1", "glo_ops", "galileo", "beidou", "qzss", "sbas"};
+        int[] constellations = {Constellation.GPS, Constellation.GLONASS, Constellation.GALILEO,
+                Constellation.BEIDOU, Constellation.QZSS, Constellation.SBAS};
+
+        HashMap<Integer, String> used = new HashMap<>();
+        for (int f = 0; f < files.length; f++) {
+            InputStream is = getClass().getResourceAsStream("/" + files[f] + ".txt");
+            assertNotNull(files[f], is);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is, "US-ASCII"));
+            int count = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("1 ") || line.startsWith("2 ") || line.trim().isEmpty()) {
+                    continue;
+                }
+                assertTrue(line, Constellation.parse(line, id));
+                assertEquals(line, constellations[f], id.constellation);
+                if (id.svid > 0) {
+                    int prn = Constellation.toLegacyPrn(id.constellation, id.svid);
+                    String other = used.put(prn, line);
+                    assertNull(line + " and " + other + " share PRN " + prn, other);
+                }
+                count++;
+            }
+            reader.close();
+            assertTrue(files[f], count > 0);
+        }
+    }
+}
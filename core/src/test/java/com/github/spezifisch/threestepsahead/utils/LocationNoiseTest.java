@@ -0,0 +1,51 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class LocationNoiseTest {
+    private static final long KEY = 0x3a5c0ffee5L;
+    private static final long EPOCH = 1471523696000L;
+
+    private static void apply(LocationNoise noise, long epoch) {
+        noise.apply(KEY, epoch, 52.52, 13.40, 90.0f, 1.4f, 8.0f);
+    }
+
+    private static void assertSameBits(LocationNoise a, LocationNoise b) {
+        assertEquals(Double.doubleToRawLongBits(a.latitude), Double.doubleToRawLongBits(b.latitude));
+        assertEquals(Double.doubleToRawLongBits(a.longitude), Double.doubleToRawLongBits(b.longitude));
+        assertEquals(Float.floatToRawIntBits(a.bearing), Float.floatToRawIntBits(b.bearing));
+        assertEquals(Float.floatToRawIntBits(a.speed), Float.floatToRawIntBits(b.speed));
+    }
+
+    // two processes getting the same real fix compute the same noisy one
+    @Test
+    public void sameKeyAndEpoch() {
+        LocationNoise a = new LocationNoise();
+        LocationNoise b = new LocationNoise();
+        apply(a, EPOCH);
+        apply(b, EPOCH - 1000); // earlier fixes don't leave state behind
+        apply(b, EPOCH);
+        assertSameBits(a, b);
+
+        apply(b, EPOCH + 1000);
+        assertFalse(Double.doubleToRawLongBits(a.latitude) == Double.doubleToRawLongBits(b.latitude));
+    }
+
+    @Test
+    public void drawsDontSharePositions() {
+        HashMap<Long, String> owner = new HashMap<>();
+        for (long epoch = EPOCH - 100; epoch <= EPOCH + 100; epoch++) {
+            for (int which = 0; which < LocationNoise.DRAWS; which++) {
+                final long first = CounterRandom.position(LocationNoise.draw(epoch, which));
+                for (long p = first; p < first + 2; p++) {
+                    String previous = owner.put(p, epoch + "/" + which);
+                    assertNull("position " + p + " of " + epoch + "/" + which + " used by " + previous, previous);
+                }
+            }
+        }
+    }
+}
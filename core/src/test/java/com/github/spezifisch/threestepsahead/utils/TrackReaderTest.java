@@ -0,0 +1,92 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class TrackReaderTest {
+    private static final long T = 1471523696000L; // 2016-08-18T12:34:56Z
+
+    @Test
+    public void parseTimeZones() {
+        assertEquals(T, TrackReader.parseTime("2016-08-18T12:34:56Z"));
+        assertEquals(T, TrackReader.parseTime("2016-08-18T12:34:56"));        // no zone is UTC
+        assertEquals(T, TrackReader.parseTime("2016-08-18T12:34:56+00:00"));
+        assertEquals(T, TrackReader.parseTime("2016-08-18T14:34:56+02:00"));
+        assertEquals(T, TrackReader.parseTime("2016-08-18T14:34:56+0200"));
+        assertEquals(T, TrackReader.parseTime("2016-08-18T14:34:56+02"));
+        assertEquals(T, TrackReader.parseTime("2016-08-18T07:04:56-05:30"));
+    }
+
+    @Test
+    public void parseTimeFractions() {
+        assertEquals(T + 789, TrackReader.parseTime("2016-08-18T12:34:56.789Z"));
+        assertEquals(T + 500, TrackReader.parseTime("2016-08-18T12:34:56.5Z"));
+        assertEquals(T + 123, TrackReader.parseTime("2016-08-18T12:34:56.123456Z"));
+        assertEquals(T + 789, TrackReader.parseTime("2016-08-18T14:34:56.789+02:00"));
+    }
+
+    @Test
+    public void parseTimeCalendar() {
+        assertEquals(0, TrackReader.parseTime("1970-01-01T00:00:00Z"));
+        assertEquals(-1000, TrackReader.parseTime("1969-12-31T23:59:59Z"));
+        assertEquals(951782400000L, TrackReader.parseTime("2000-02-29T00:00:00Z"));
+        assertEquals(4107542400000L, TrackReader.parseTime("2100-03-01T00:00:00Z"));
+    }
+
+    @Test
+    public void parseTimeEpochMs() {
+        assertEquals(T, TrackReader.parseTime("1471523696000"));
+        assertEquals(0, TrackReader.parseTime("0"));
+    }
+
+    @Test
+    public void parseTimeInvalid() {
+        assertEquals(TrackReader.NO_TIME, TrackReader.parseTime(""));
+        assertEquals(TrackReader.NO_TIME, TrackReader.parseTime("yesterday"));
+        assertEquals(TrackReader.NO_TIME, TrackReader.parseTime("2016-08-18Txx:34:56Z"));
+        assertEquals(TrackReader.NO_TIME, TrackReader.parseTime("2016-08-18T12:34:56+x"));
+    }
+
+    @Test
+    public void csv() throws IOException {
+        TrackReader reader = new TrackReader.Csv(new StringReader(
+                "# exported track\n" +
+                "latitude,longitude,altitude,time\n" +
+                "\n" +
+                "52.5200,13.4049\n" +
+                "  52.5201 ; 13.4050 ; 34.5 \n" +
+                "52.5202\t13.4051\t35\t2016-08-18T12:34:56Z\n" +
+                "52.5203,13.4052,,1471523697000\n" +
+                "not,a,number\n" +
+                "52.5204\n"));
+        TrackReader.Waypoint w = new TrackReader.Waypoint();
+
+        assertTrue(reader.next(w));
+        assertEquals(52.52, w.latitude, 0);
+        assertEquals(13.4049, w.longitude, 0);
+        assertEquals(0, w.altitude, 0);
+        assertEquals(TrackReader.NO_TIME, w.time);
+
+        assertTrue(reader.next(w));
+        assertEquals(52.5201, w.latitude, 0);
+        assertEquals(13.405, w.longitude, 0);
+        assertEquals(34.5, w.altitude, 0);
+        assertEquals(TrackReader.NO_TIME, w.time);
+
+        assertTrue(reader.next(w));
+        assertEquals(35, w.altitude, 0);
+        assertEquals(T, w.time);
+
+        assertTrue(reader.next(w));
+        assertEquals(52.5203, w.latitude, 0);
+        assertEquals(0, w.altitude, 0);
+        assertEquals(T + 1000, w.time);
+
+        assertFalse(reader.next(w));
+        reader.close();
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrackTest {
+    private static final double MAX_ERROR_px = 1.0;
+
+    // recorded points in projected pixels, including the ones the track dropped
+    private int[] rx, ry;
+
+    // random walk at walking pace with the occasional turn
+    private Track walk(int points, long seed) {
+        Track track = new Track();
+        Random random = new Random(seed);
+        rx = new int[points];
+        ry = new int[points];
+
+        double lat = 52.52, lon = 13.40, bearing = 0;
+        for (int i = 0; i < points; i++) {
+            bearing += random.nextGaussian() * 0.05;
+            if (i % 2000 == 0) {
+                bearing += random.nextGaussian();
+            }
+            lat += Math.cos(bearing) * 0.7 / 111320;
+            lon += Math.sin(bearing) * 0.7 / (111320 * Math.cos(Math.toRadians(lat)));
+            track.add(lat, lon);
+            rx[i] = Tiles.pixelX(lon, Track.PROJECTED_ZOOM);
+            ry[i] = Tiles.pixelY(lat, Track.PROJECTED_ZOOM);
+        }
+        return track;
+    }
+
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax, dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq > 0 ? ((px - ax) * dx + (py - ay) * dy) / lengthSq : 0;
+        t = Math.min(Math.max(t, 0), 1);
+        return Math.hypot(px - ax - t * dx, py - ay - t * dy);
+    }
+
+    // every retained point is within MAX_ERROR_px of the path segment spanning it, at every zoom
+    private void assertErrorBound(Track track) {
+        final int points = rx.length;
+        final int oldest = points - track.size();
+
+        for (int zoom = Track.MIN_ZOOM; zoom <= Track.MAX_ZOOM; zoom++) {
+            final int n = track.beginPath(zoom);
+            assertTrue("zoom " + zoom, n >= 2);
+            assertEquals("zoom " + zoom + " ends at the newest point", rx[points - 1], track.pathX(n - 1));
+            assertEquals("zoom " + zoom + " ends at the newest point", ry[points - 1], track.pathY(n - 1));
+
+            // path vertices are recorded points in order, find which
+            int[] index = new int[n];
+            int j = 0;
+            for (int v = 0; v < n; v++) {
+                while (j < points && (rx[j] != track.pathX(v) || ry[j] != track.pathY(v))) {
+                    j++;
+                }
+                assertTrue("zoom " + zoom + " vertex " + v + " isn't a recorded point", j < points);
+                index[v] = j;
+            }
+            assertTrue("zoom " + zoom + " starts after the oldest point", index[0] <= oldest);
+
+            final double scale = 1 << (Track.PROJECTED_ZOOM - zoom);
+            double maxError = 0;
+            for (int v = 0; v + 1 < n; v++) {
+                final int ax = track.pathX(v), ay = track.pathY(v);
+                final int bx = track.pathX(v + 1), by = track.pathY(v + 1);
+                for (int i = Math.max(index[v], oldest); i <= index[v + 1]; i++) {
+                    maxError = Math.max(maxError, segmentDistance(rx[i], ry[i], ax, ay, bx, by) / scale);
+                }
+            }
+            assertTrue("zoom " + zoom + " error " + maxError + " px", maxError <= MAX_ERROR_px);
+        }
+    }
+
+    @Test
+    public void errorBound() {
+        Track track = walk(20000, 1);
+        assertEquals(20000, track.size());
+        assertErrorBound(track);
+    }
+
+    @Test
+    public void errorBoundAfterWrapAround() {
+        Track track = walk(Track.CAPACITY + 40000, 2);
+        assertEquals(Track.CAPACITY, track.size());
+        assertErrorBound(track);
+    }
+
+    @Test
+    public void simplifies() {
+        Track track = walk(20000, 3);
+        for (int zoom = Track.MIN_ZOOM; zoom < Track.MAX_ZOOM; zoom++) {
+            assertTrue("zoom " + zoom, track.getVertexCount(zoom) <= track.getVertexCount(zoom + 1));
+        }
+        assertTrue(track.getVertexCount(Track.MAX_ZOOM) < track.size());
+    }
+
+    @Test
+    public void standingStill() {
+        Track track = new Track();
+        assertEquals(0, track.beginPath(16));
+        for (int i = 0; i < 10; i++) {
+            track.add(52.52, 13.40);
+        }
+        assertEquals(1, track.size());
+        assertEquals(1, track.beginPath(16));
+
+        track.add(52.53, 13.41);
+        assertEquals(2, track.beginPath(16));
+
+        track.clear();
+        assertEquals(0, track.size());
+        assertEquals(0, track.beginPath(16));
+    }
+}
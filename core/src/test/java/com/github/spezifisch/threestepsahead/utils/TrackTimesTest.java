@@ -0,0 +1,79 @@
+package com.github.spezifisch.threestepsahead.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TrackTimesTest {
+    private static final double SPEED = 2.0; // m/s
+    private static final long T = 1471523696000L;
+
+    private final TrackTimes times = new TrackTimes();
+    private TrackReader.Waypoint from = new TrackReader.Waypoint();
+    private TrackReader.Waypoint to = new TrackReader.Waypoint();
+
+    private TrackReader.Waypoint waypoint(long time) {
+        TrackReader.Waypoint w = new TrackReader.Waypoint();
+        w.reset();
+        w.time = time;
+        return w;
+    }
+
+    private void start(long time) {
+        from = waypoint(time);
+        times.start(from);
+    }
+
+    // next waypoint length m after the previous one, returns its track time
+    private long next(long time, double length) {
+        to = waypoint(time);
+        times.next(from, to, length, SPEED);
+        from = to;
+        return to.time;
+    }
+
+    @Test
+    public void untimed() {
+        start(TrackReader.NO_TIME);
+        assertEquals(0, from.time);
+        assertEquals(5000, next(TrackReader.NO_TIME, 10));
+        assertEquals(15000, next(TrackReader.NO_TIME, 20));
+        // never two waypoints at the same time
+        assertEquals(15001, next(TrackReader.NO_TIME, 0));
+    }
+
+    @Test
+    public void timed() {
+        start(T);
+        assertEquals(T, from.time);
+        assertEquals(T + 60000, next(T + 60000, 10));
+        assertEquals(T + 61000, next(T + 61000, 500));
+    }
+
+    // an untimed first waypoint mustn't make the first segment last since 1970
+    @Test
+    public void untimedThenTimed() {
+        start(TrackReader.NO_TIME);
+        assertEquals(5000, next(T, 10));
+        // spacing of the timed waypoints is kept
+        assertEquals(7000, next(T + 2000, 10));
+        assertEquals(17000, next(T + 12000, 10));
+    }
+
+    @Test
+    public void timedUntimedTimed() {
+        start(T);
+        assertEquals(T + 5000, next(TrackReader.NO_TIME, 10));
+        // the gap in file time is kept
+        assertEquals(T + 60000, next(T + 60000, 10));
+    }
+
+    @Test
+    public void backInTime() {
+        start(T);
+        assertEquals(T + 1000, next(T + 1000, 2));
+        // re-anchored at walking speed, later waypoints keep their spacing
+        assertEquals(T + 6000, next(T - 3600000, 10));
+        assertEquals(T + 8000, next(T - 3598000, 10));
+    }
+}